@@ -0,0 +1 @@
+-keep interface com.snakeway.pdflibrary.RenderPauseCallback { *; }
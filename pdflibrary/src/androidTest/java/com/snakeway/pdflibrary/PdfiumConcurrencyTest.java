@@ -0,0 +1,103 @@
+package com.snakeway.pdflibrary;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Renders two documents from two threads at once, the pixels must match a sequential render since
+ * every native call is serialized on one lock.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PdfiumConcurrencyTest {
+
+    private static final int ROUNDS = 20;
+    private static final int SIZE = 256;
+
+    private PdfiumCore core;
+    private PdfDocument[] documents;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        core = new PdfiumCore(context);
+        File file = SamplePdf.write(context, "concurrency.pdf");
+        documents = new PdfDocument[]{SamplePdf.open(core, file), SamplePdf.open(core, file)};
+    }
+
+    @After
+    public void tearDown() {
+        for (PdfDocument document : documents) {
+            core.closeDocument(document);
+        }
+    }
+
+    @Test
+    public void concurrentRenderMatchesSequential() throws Exception {
+        final int[][] expected = new int[SamplePdf.PAGE_COUNT][];
+        for (int page = 0; page < SamplePdf.PAGE_COUNT; page++) {
+            expected[page] = render(documents[0], page);
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[documents.length];
+        for (int i = 0; i < threads.length; i++) {
+            final PdfDocument document = documents[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            for (int page = 0; page < SamplePdf.PAGE_COUNT; page++) {
+                                assertArrayEquals(expected[page], render(document, page));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+
+    private int[] render(PdfDocument document, int page) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        core.renderPageBitmap(document, bitmap, page, 0, 0, SIZE, SIZE);
+        int[] pixels = new int[SIZE * SIZE];
+        bitmap.getPixels(pixels, 0, SIZE, 0, 0, SIZE, SIZE);
+        bitmap.recycle();
+        assertTrue("blank render", hasInk(pixels));
+        return pixels;
+    }
+
+    private static boolean hasInk(int[] pixels) {
+        int first = pixels[0];
+        for (int pixel : pixels) {
+            if (pixel != first) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
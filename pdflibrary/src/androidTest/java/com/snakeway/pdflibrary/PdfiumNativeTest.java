@@ -0,0 +1,151 @@
+package com.snakeway.pdflibrary;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.RectF;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Calls the native methods added to corepdf, an outdated library fails here with an
+ * UnsatisfiedLinkError instead of in the viewer
+ */
+@RunWith(AndroidJUnit4.class)
+public class PdfiumNativeTest {
+
+    private static final int SIZE = 128;
+
+    private PdfiumCore core;
+    private PdfDocument document;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        core = new PdfiumCore(context);
+        document = SamplePdf.open(core, SamplePdf.write(context, "native.pdf"));
+    }
+
+    @After
+    public void tearDown() {
+        core.closeDocument(document);
+    }
+
+    @Test
+    public void renderProgressive() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        assertTrue(core.renderPageBitmap(document, bitmap, 0, 0, 0, SIZE, SIZE, false, new RenderPauseCallback() {
+            @Override
+            public boolean needToPause() {
+                return false;
+            }
+        }) >= 0);
+        assertTrue("blank render", hasInk(bitmap));
+        bitmap.recycle();
+    }
+
+    @Test
+    public void pageTextAndRects() {
+        Long pageTextPtr = core.openTextPage(document, 0);
+        assertNotNull(pageTextPtr);
+        String text = new String(core.getPageText(document, 0, pageTextPtr));
+        assertTrue(text, text.contains(SamplePdf.FIRST_LINE));
+        assertEquals(core.getPageTextCount(document, 0, pageTextPtr), text.length());
+
+        int start = text.indexOf(SamplePdf.FIRST_LINE);
+        int count = SamplePdf.FIRST_LINE.length();
+        float[] rects = core.getTextRects(document, 0, pageTextPtr, start, count);
+        assertEquals(count * 4, rects.length);
+        RectF first = core.getTextRect(document, 0, pageTextPtr, start);
+        assertEquals(first.left, rects[0], 0.01f);
+        assertEquals(first.right, rects[2], 0.01f);
+
+        assertArrayEquals(core.getPageText(document, 0, pageTextPtr), core.extractPageText(document, 0));
+        assertArrayEquals(rects, core.extractTextRects(document, 0, start, count), 0.01f);
+        // A pointer is only accepted for the page it was opened for
+        assertEquals(0, core.getPageTextCount(document, 1, pageTextPtr));
+        String closedPageText = new String(core.extractPageText(document, 1));
+        assertTrue(closedPageText, closedPageText.contains(SamplePdf.FIRST_LINE));
+    }
+
+    @Test
+    public void textLineRects() {
+        Long pageTextPtr = core.openTextPage(document, 0);
+        assertNotNull(pageTextPtr);
+        String text = new String(core.getPageText(document, 0, pageTextPtr));
+        int start = text.indexOf(SamplePdf.FIRST_LINE);
+        int second = text.indexOf("second");
+        assertTrue(text, start >= 0 && second > start);
+
+        float[] firstLine = core.getTextLineRects(document, 0, pageTextPtr, start, SamplePdf.FIRST_LINE.length());
+        assertEquals(4, firstLine.length);
+        float[] bothLines = core.getTextLineRects(document, 0, pageTextPtr, start, second - start + 1);
+        assertEquals(8, bothLines.length);
+
+        int[] ranges = {start, SamplePdf.FIRST_LINE.length(), start, second - start + 1};
+        float[] batch = core.getTextLineRects(document, 0, pageTextPtr, ranges);
+        assertEquals(1 + 4 + 1 + 8, batch.length);
+        assertEquals(1, (int) batch[0]);
+        assertEquals(2, (int) batch[5]);
+        assertEquals(batch.length, core.extractTextLineRects(document, 1, ranges).length);
+    }
+
+    @Test
+    public void bitmapMargins() {
+        Bitmap bitmap = Bitmap.createBitmap(40, 30, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        assertArrayEquals(new int[]{30, 40, 30, 40}, PdfiumCore.getBitmapMargins(bitmap));
+        for (int y = 5; y < 20; y++) {
+            for (int x = 3; x < 31; x++) {
+                bitmap.setPixel(x, y, Color.BLACK);
+            }
+        }
+        assertArrayEquals(new int[]{5, 9, 10, 3}, PdfiumCore.getBitmapMargins(bitmap));
+        Bitmap rgb565 = bitmap.copy(Bitmap.Config.RGB_565, false);
+        assertArrayEquals(new int[]{5, 9, 10, 3}, PdfiumCore.getBitmapMargins(rgb565));
+        rgb565.recycle();
+        bitmap.recycle();
+    }
+
+    @Test
+    public void pageContentBounds() {
+        RectF bounds = core.getPageContentBounds(document, 0);
+        assertNotNull("text only page must have content bounds", bounds);
+        assertTrue(bounds.toString(), bounds.left > 0 && bounds.top > 0);
+        assertTrue(bounds.toString(), bounds.right < 1 && bounds.bottom < 0.5f);
+    }
+
+    @Test
+    public void pageContentBoundsWithShape() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        PdfDocument withShape = SamplePdf.open(core, SamplePdf.write(context, "shape.pdf", true));
+        try {
+            assertNull(core.getPageContentBounds(withShape, SamplePdf.PAGE_COUNT - 1));
+        } finally {
+            core.closeDocument(withShape);
+        }
+    }
+
+    private static boolean hasInk(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        for (int pixel : pixels) {
+            if (pixel != pixels[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+package com.snakeway.pdflibrary;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a small pdf with a few lines of text on each page, for the tests which need a real document
+ */
+class SamplePdf {
+
+    static final int PAGE_COUNT = 4;
+    static final int PAGE_WIDTH = 300;
+    static final int PAGE_HEIGHT = 400;
+    static final String FIRST_LINE = "Hello pdfium";
+
+    static File write(Context context, String name) throws IOException {
+        return write(context, name, false);
+    }
+
+    /**
+     * @param withShape draw a filled rect below the text of the last page, outside the text bounds
+     */
+    static File write(Context context, String name, boolean withShape) throws IOException {
+        android.graphics.pdf.PdfDocument document = new android.graphics.pdf.PdfDocument();
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(18);
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            android.graphics.pdf.PdfDocument.Page page = document.startPage(
+                    new android.graphics.pdf.PdfDocument.PageInfo.Builder(PAGE_WIDTH, PAGE_HEIGHT, i + 1).create());
+            Canvas canvas = page.getCanvas();
+            canvas.drawText(FIRST_LINE, 40, 60, paint);
+            canvas.drawText("Page " + (i + 1) + " second line", 40, 100, paint);
+            if (withShape && i == PAGE_COUNT - 1) {
+                canvas.drawRect(20, 300, 280, 380, paint);
+            }
+            document.finishPage(page);
+        }
+        File file = new File(context.getCacheDir(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            document.writeTo(out);
+        } finally {
+            out.close();
+            document.close();
+        }
+        return file;
+    }
+
+    static PdfDocument open(PdfiumCore core, File file) throws IOException {
+        return core.newDocument(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+    }
+}
@@ -4,9 +4,9 @@ import android.graphics.RectF;
 import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.Nullable;
-import androidx.collection.ArrayMap;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -116,24 +116,119 @@ public class PdfDocument {
 
     /*package*/ long mNativeDocPtr;
     /*package*/ ParcelFileDescriptor parcelFileDescriptor;
-
-    /*package*/ final Map<Integer, Long> mNativePagesPtr = new ArrayMap<>();
-    /*package*/ final Map<Integer, Long> mNativeTextPagesPtr = new ArrayMap<>();
+    /*package*/ volatile String fingerprint;
+
+    /**
+     * Pages opened by default before the least recently used one is closed
+     */
+    public static final int DEFAULT_MAX_OPEN_PAGES = 32;
+
+    /**
+     * Text pages opened by default before the least recently used one is closed
+     */
+    public static final int DEFAULT_MAX_OPEN_TEXT_PAGES = 8;
+
+    /**
+     * Opened pages and text pages by page index, least recently used first.
+     * Access order changes on each get, so they are only used with {@link PdfiumCore#lock} held.
+     */
+    /*package*/ final Map<Integer, Long> mNativePagesPtr = new LinkedHashMap<>(16, 0.75f, true);
+    /*package*/ final Map<Integer, Long> mNativeTextPagesPtr = new LinkedHashMap<>(16, 0.75f, true);
+
+    /*package*/ int maxOpenPages = DEFAULT_MAX_OPEN_PAGES;
+    /*package*/ int maxOpenTextPages = DEFAULT_MAX_OPEN_TEXT_PAGES;
+
+    /*package*/ int peakOpenPageCount = 0;
+    /*package*/ int peakOpenTextPageCount = 0;
+    /*package*/ int pageEvictionCount = 0;
+    /*package*/ int textPageEvictionCount = 0;
+
+    /**
+     * Limit the native handles kept opened, the least recently used pages and text pages beyond
+     * the limits are closed the next time a page or a text page is opened.
+     * A page is loaded again when it is used after being closed.
+     */
+    public void setMaxOpenPages(int maxPages, int maxTextPages) {
+        synchronized (PdfiumCore.lock) {
+            maxOpenPages = Math.max(1, maxPages);
+            maxOpenTextPages = Math.max(1, maxTextPages);
+        }
+    }
 
     public boolean hasPage(int index) {
-        return mNativePagesPtr.containsKey(index);
+        synchronized (PdfiumCore.lock) {
+            return mNativePagesPtr.containsKey(index);
+        }
     }
 
     public int getNativeTextPagesPtrSize() {
-        return mNativeTextPagesPtr.size();
+        synchronized (PdfiumCore.lock) {
+            return mNativeTextPagesPtr.size();
+        }
     }
 
     public boolean hasTextPage(int index) {
-        return mNativeTextPagesPtr.containsKey(index);
+        synchronized (PdfiumCore.lock) {
+            return mNativeTextPagesPtr.containsKey(index);
+        }
     }
 
+    /**
+     * @return the text page if it is opened, see {@link PdfiumCore#openTextPage(PdfDocument, int)}
+     * to load it when needed
+     */
     public @Nullable
     Long getTextPagesPtr(int pageIndex) {
-        return mNativeTextPagesPtr.get(pageIndex);
+        synchronized (PdfiumCore.lock) {
+            return mNativeTextPagesPtr.get(pageIndex);
+        }
+    }
+
+    public int getOpenPageCount() {
+        synchronized (PdfiumCore.lock) {
+            return mNativePagesPtr.size();
+        }
+    }
+
+    public int getOpenTextPageCount() {
+        synchronized (PdfiumCore.lock) {
+            return mNativeTextPagesPtr.size();
+        }
+    }
+
+    /**
+     * @return the most pages opened at the same time since the document was opened
+     */
+    public int getPeakOpenPageCount() {
+        synchronized (PdfiumCore.lock) {
+            return peakOpenPageCount;
+        }
+    }
+
+    /**
+     * @return the most text pages opened at the same time since the document was opened
+     */
+    public int getPeakOpenTextPageCount() {
+        synchronized (PdfiumCore.lock) {
+            return peakOpenTextPageCount;
+        }
+    }
+
+    /**
+     * @return how many pages were closed to respect the limit
+     */
+    public int getPageEvictionCount() {
+        synchronized (PdfiumCore.lock) {
+            return pageEvictionCount;
+        }
+    }
+
+    /**
+     * @return how many text pages were closed to respect the limit, with their page or alone
+     */
+    public int getTextPageEvictionCount() {
+        synchronized (PdfiumCore.lock) {
+            return textPageEvictionCount;
+        }
     }
 }
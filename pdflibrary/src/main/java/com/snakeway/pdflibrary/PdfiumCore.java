@@ -11,16 +11,32 @@ import android.view.Surface;
 
 import com.snakeway.pdflibrary.util.Size;
 
+import java.io.EOFException;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class PdfiumCore {
     private static final String TAG = PdfiumCore.class.getName();
     private static final Class FD_CLASS = FileDescriptor.class;
     private static final String FD_FIELD_NAME = "descriptor";
+    private static final int FINGERPRINT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Results of the progressive render
+     */
+    private static final int RENDER_COMPLETED = 0;
+    private static final int RENDER_ABORTED = 1;
+    private static final int RENDER_FAILED = 2;
 
     static {
         try {
@@ -70,6 +86,15 @@ public class PdfiumCore {
                                                int drawSizeHor, int drawSizeVer,
                                                boolean renderAnnot);
 
+    /**
+     * @return one of {@link #RENDER_COMPLETED}, {@link #RENDER_ABORTED} or {@link #RENDER_FAILED}
+     */
+    private native int nativeRenderPageBitmapProgressive(long pagePtr, Bitmap bitmap, int dpi,
+                                                         int startX, int startY,
+                                                         int drawSizeHor, int drawSizeVer,
+                                                         boolean renderAnnot,
+                                                         RenderPauseCallback pauseCallback);
+
     private native String nativeGetDocumentMetaText(long docPtr, String tag);
 
     private native Long nativeGetFirstChildBookmark(long docPtr, Long bookmarkPtr);
@@ -93,7 +118,6 @@ public class PdfiumCore {
     private native Point nativePageCoordsToDevice(long pagePtr, int startX, int startY, int sizeX,
                                                   int sizeY, int rotate, double pageX, double pageY);
 
-    //TODO support more by snakeway
     //device coords to page
     private native PointF nativeDeviceCoordsToPage(long pagePtr, int startX, int startY, int sizeX,
                                                    int sizeY, int rotate, double deviceX, double deviceY);
@@ -116,8 +140,27 @@ public class PdfiumCore {
     //search text unicode by index
     private native int nativeSearchTextUnicode(long pageTextPtr, int charIndex);
 
-    /* synchronize native methods */
-    private static final Object lock = new Object();
+    //get text of the whole page
+    private native char[] nativeGetPageText(long pageTextPtr);
+
+    //get boxes of a range of chars
+    private native float[] nativeGetTextRects(long pageTextPtr, int start, int count);
+
+    //get boxes of ranges of chars merged by line
+    private native float[] nativeGetTextLineRects(long pageTextPtr, int[] ranges);
+
+    //count the white rows and columns at the edges of a bitmap
+    private static native int[] nativeGetBitmapMargins(Bitmap bitmap);
+
+    //get the bounding box of the text of a page
+    private native float[] nativeGetPageContentBox(long pagePtr, long pageTextPtr);
+
+    /**
+     * Serializes every native call of the process. Pdfium keeps global state (library init/destroy
+     * reference counting, font caches, the last error) and is not thread safe even across different
+     * documents.
+     */
+    /*package*/ static final Object lock = new Object();
     private static Field mFdField = null;
     public int mCurrentDpi;
 
@@ -167,6 +210,7 @@ public class PdfiumCore {
         return document;
     }
 
+
     /**
      * Create new document from bytearray
      */
@@ -182,6 +226,9 @@ public class PdfiumCore {
         synchronized (lock) {
             document.mNativeDocPtr = nativeOpenMemDocument(data, password);
         }
+        MessageDigest digest = newFingerprintDigest();
+        digest.update(data);
+        document.fingerprint = toHex(digest.digest());
         return document;
     }
 
@@ -195,93 +242,147 @@ public class PdfiumCore {
     }
 
     /**
-     * Open page and store native pointer in {@link PdfDocument}
+     * Open page and store native pointer in {@link PdfDocument}. The text page is only loaded
+     * when needed, see {@link #openTextPage(PdfDocument, int)}.
      */
     public long openPage(PdfDocument doc, int pageIndex) {
-        long pagePtr;
-        long pageTextPtr;
         synchronized (lock) {
-            pagePtr = nativeLoadPage(doc.mNativeDocPtr, pageIndex);
-            doc.mNativePagesPtr.put(pageIndex, pagePtr);
-            pageTextPtr = nativeLoadTextPage(pagePtr);
-            doc.mNativeTextPagesPtr.put(pageIndex, pageTextPtr);
-            return pagePtr;
+            return loadPage(doc, pageIndex);
         }
-
     }
 
     /**
-     * Open range of pages and store native pointers in {@link PdfDocument}
+     * Open range of pages and store native pointers in {@link PdfDocument}.
+     * Pages beyond {@link PdfDocument#setMaxOpenPages(int, int)} close the least recently used ones.
      */
     public long[] openPage(PdfDocument doc, int fromIndex, int toIndex) {
-        long[] pagesPtr;
         synchronized (lock) {
-            pagesPtr = nativeLoadPages(doc.mNativeDocPtr, fromIndex, toIndex);
-            int pageIndex = fromIndex;
-            for (long page : pagesPtr) {
-                if (pageIndex > toIndex) break;
-                doc.mNativePagesPtr.put(pageIndex, page);
-                doc.mNativeTextPagesPtr.put(pageIndex, nativeLoadTextPage(page));
-                pageIndex++;
+            long[] pagesPtr = new long[Math.max(0, toIndex - fromIndex + 1)];
+            for (int pageIndex = fromIndex; pageIndex <= toIndex; pageIndex++) {
+                pagesPtr[pageIndex - fromIndex] = loadPage(doc, pageIndex);
             }
-
             return pagesPtr;
         }
     }
 
+    /**
+     * Open the text page of a page, opening the page too if needed, and store native pointers in
+     * {@link PdfDocument}. The text page may be closed by a later call when the document keeps too
+     * many text pages opened, so the pointer should be requested again for each use.
+     *
+     * @return the native text page pointer, or null if the page has no text page
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    public Long openTextPage(PdfDocument doc, int pageIndex) {
+        synchronized (lock) {
+            Long pageTextPtr = doc.mNativeTextPagesPtr.get(pageIndex);
+            long pagePtr = loadPage(doc, pageIndex);
+            if (pageTextPtr != null) {
+                return pageTextPtr;
+            }
+            pageTextPtr = nativeLoadTextPage(pagePtr);
+            if (pageTextPtr == -1) {
+                return null;
+            }
+            doc.mNativeTextPagesPtr.put(pageIndex, pageTextPtr);
+            doc.peakOpenTextPageCount = Math.max(doc.peakOpenTextPageCount, doc.mNativeTextPagesPtr.size());
+            Iterator<Map.Entry<Integer, Long>> iterator = doc.mNativeTextPagesPtr.entrySet().iterator();
+            while (doc.mNativeTextPagesPtr.size() > doc.maxOpenTextPages) {
+                nativeCloseTextPage(iterator.next().getValue());
+                iterator.remove();
+                doc.textPageEvictionCount++;
+            }
+            return pageTextPtr;
+        }
+    }
+
+    /**
+     * Get the opened page, loading it if it is not opened or was closed to respect the limit,
+     * and close the least recently used pages beyond the limit. Called with the document lock held.
+     *
+     * @throws IllegalStateException if the document is closed
+     */
+    private long loadPage(PdfDocument doc, int pageIndex) {
+        Long openedPagePtr = doc.mNativePagesPtr.get(pageIndex);
+        if (openedPagePtr != null) {
+            return openedPagePtr;
+        }
+        long pagePtr = nativeLoadPage(getDocumentPtr(doc), pageIndex);
+        doc.mNativePagesPtr.put(pageIndex, pagePtr);
+        doc.peakOpenPageCount = Math.max(doc.peakOpenPageCount, doc.mNativePagesPtr.size());
+        Iterator<Map.Entry<Integer, Long>> iterator = doc.mNativePagesPtr.entrySet().iterator();
+        while (doc.mNativePagesPtr.size() > doc.maxOpenPages) {
+            Map.Entry<Integer, Long> eldest = iterator.next();
+            Long pageTextPtr = doc.mNativeTextPagesPtr.remove(eldest.getKey());
+            if (pageTextPtr != null) {
+                nativeCloseTextPage(pageTextPtr);
+                doc.textPageEvictionCount++;
+            }
+            nativeClosePage(eldest.getValue());
+            iterator.remove();
+            doc.pageEvictionCount++;
+        }
+        return pagePtr;
+    }
+
+    /**
+     * @throws IllegalStateException if the document is closed
+     */
+    private static long getDocumentPtr(PdfDocument doc) {
+        if (doc.mNativeDocPtr == 0) {
+            throw new IllegalStateException("Document is closed");
+        }
+        return doc.mNativeDocPtr;
+    }
+
+    /**
+     * A text page pointer held by a caller may have been closed to respect the limit since it was
+     * requested, and its address reused by another text page, so the pointer must still be the
+     * one opened for the page. Calls with another pointer are ignored. Called with the document
+     * lock held.
+     */
+    private static boolean isTextPageOpen(PdfDocument doc, int pageIndex, long pageTextPtr) {
+        Long openedTextPagePtr = doc.mNativeTextPagesPtr.get(pageIndex);
+        return openedTextPagePtr != null && openedTextPagePtr == pageTextPtr;
+    }
+
     /**
      * Get page width in pixels. <br>
-     * This method requires page to be opened.
+     * The page is opened if needed.
      */
     public int getPageWidth(PdfDocument doc, int index) {
         synchronized (lock) {
-            Long pagePtr;
-            if ((pagePtr = doc.mNativePagesPtr.get(index)) != null) {
-                return nativeGetPageWidthPixel(pagePtr, mCurrentDpi);
-            }
-            return 0;
+            return nativeGetPageWidthPixel(loadPage(doc, index), mCurrentDpi);
         }
     }
 
     /**
      * Get page height in pixels. <br>
-     * This method requires page to be opened.
+     * The page is opened if needed.
      */
     public int getPageHeight(PdfDocument doc, int index) {
         synchronized (lock) {
-            Long pagePtr;
-            if ((pagePtr = doc.mNativePagesPtr.get(index)) != null) {
-                return nativeGetPageHeightPixel(pagePtr, mCurrentDpi);
-            }
-            return 0;
+            return nativeGetPageHeightPixel(loadPage(doc, index), mCurrentDpi);
         }
     }
 
     /**
      * Get page width in PostScript points (1/72th of an inch).<br>
-     * This method requires page to be opened.
+     * The page is opened if needed.
      */
     public int getPageWidthPoint(PdfDocument doc, int index) {
         synchronized (lock) {
-            Long pagePtr;
-            if ((pagePtr = doc.mNativePagesPtr.get(index)) != null) {
-                return nativeGetPageWidthPoint(pagePtr);
-            }
-            return 0;
+            return nativeGetPageWidthPoint(loadPage(doc, index));
         }
     }
 
     /**
      * Get page height in PostScript points (1/72th of an inch).<br>
-     * This method requires page to be opened.
+     * The page is opened if needed.
      */
     public int getPageHeightPoint(PdfDocument doc, int index) {
         synchronized (lock) {
-            Long pagePtr;
-            if ((pagePtr = doc.mNativePagesPtr.get(index)) != null) {
-                return nativeGetPageHeightPoint(pagePtr);
-            }
-            return 0;
+            return nativeGetPageHeightPoint(loadPage(doc, index));
         }
     }
 
@@ -314,14 +415,12 @@ public class PdfiumCore {
         synchronized (lock) {
             try {
                 //nativeRenderPage(doc.mNativePagesPtr.get(pageIndex), surface, mCurrentDpi);
-                nativeRenderPage(doc.mNativePagesPtr.get(pageIndex), surface, mCurrentDpi,
+                nativeRenderPage(loadPage(doc, pageIndex), surface, mCurrentDpi,
                         startX, startY, drawSizeX, drawSizeY, renderAnnot);
             } catch (NullPointerException e) {
-                Log.e(TAG, "mContext may be null");
-                e.printStackTrace();
+                Log.e(TAG, "mContext may be null", e);
             } catch (Exception e) {
-                Log.e(TAG, "Exception throw from native");
-                e.printStackTrace();
+                Log.e(TAG, "Exception throw from native", e);
             }
         }
     }
@@ -352,34 +451,125 @@ public class PdfiumCore {
                                  boolean renderAnnot) {
         synchronized (lock) {
             try {
-                nativeRenderPageBitmap(doc.mNativePagesPtr.get(pageIndex), bitmap, mCurrentDpi,
+                nativeRenderPageBitmap(loadPage(doc, pageIndex), bitmap, mCurrentDpi,
                         startX, startY, drawSizeX, drawSizeY, renderAnnot);
             } catch (NullPointerException e) {
-                Log.e(TAG, "mContext may be null");
-                e.printStackTrace();
+                Log.e(TAG, "mContext may be null", e);
             } catch (Exception e) {
-                Log.e(TAG, "Exception throw from native");
-                e.printStackTrace();
+                Log.e(TAG, "Exception throw from native", e);
+            }
+        }
+    }
+
+    /**
+     * Render page fragment on {@link Bitmap} progressively, asking the callback between steps
+     * whether the render must stop. Heavy pages can then be abandoned instead of blocking the
+     * rendering thread until they are complete.<br>
+     * Page must be opened before rendering.
+     * <p>
+     * For more info see {@link PdfiumCore#renderPageBitmap(PdfDocument, Bitmap, int, int, int, int, int)}
+     *
+     * @return the time spent rendering in nanoseconds, measured once the lock is held so it does
+     * not include the wait for other renders, or -1 if the callback aborted the render or the
+     * document was closed, the content of the bitmap is then undefined
+     * @throws IllegalStateException if the page cannot be rendered
+     */
+    public long renderPageBitmap(PdfDocument doc, Bitmap bitmap, int pageIndex,
+                                 int startX, int startY, int drawSizeX, int drawSizeY,
+                                 boolean renderAnnot, RenderPauseCallback pauseCallback) {
+        synchronized (lock) {
+            if (doc.mNativeDocPtr == 0) {
+                return -1;
+            }
+            long startNanos = System.nanoTime();
+            int result = nativeRenderPageBitmapProgressive(loadPage(doc, pageIndex), bitmap, mCurrentDpi,
+                    startX, startY, drawSizeX, drawSizeY, renderAnnot, pauseCallback);
+            if (result == RENDER_FAILED) {
+                throw new IllegalStateException("Page " + pageIndex + " cannot be rendered");
+            }
+            return result == RENDER_COMPLETED ? System.nanoTime() - startNanos : -1;
+        }
+    }
+
+    /**
+     * Get a stable identifier of the document content, the MD5 of the whole file, read on the
+     * calling thread the first time. Suitable as a key for caches persisted across sessions.
+     */
+    public String getDocumentFingerprint(PdfDocument doc) throws IOException {
+        ParcelFileDescriptor fd;
+        synchronized (lock) {
+            if (doc.fingerprint != null || doc.parcelFileDescriptor == null) {
+                return doc.fingerprint;
             }
+            fd = doc.parcelFileDescriptor.dup();
+        }
+        // Reading the file does not need the library lock, rendering goes on meanwhile
+        FileInputStream stream = new ParcelFileDescriptor.AutoCloseInputStream(fd);
+        try {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            MessageDigest digest = newFingerprintDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_BUFFER_SIZE);
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                readFully(channel, buffer, position);
+                buffer.flip();
+                position += buffer.remaining();
+                digest.update(buffer);
+            }
+            doc.fingerprint = toHex(digest.digest());
+        } finally {
+            stream.close();
+        }
+        return doc.fingerprint;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static MessageDigest newFingerprintDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
     /**
      * Release native resources and opened file
      */
     public void closeDocument(PdfDocument doc) {
         synchronized (lock) {
-            for (Integer index : doc.mNativeTextPagesPtr.keySet()) {
-                nativeCloseTextPage(doc.mNativeTextPagesPtr.get(index));
+            for (Long pageTextPtr : doc.mNativeTextPagesPtr.values()) {
+                nativeCloseTextPage(pageTextPtr);
             }
             doc.mNativeTextPagesPtr.clear();
 
-            for (Integer index : doc.mNativePagesPtr.keySet()) {
-                nativeClosePage(doc.mNativePagesPtr.get(index));
+            for (Long pagePtr : doc.mNativePagesPtr.values()) {
+                nativeClosePage(pagePtr);
             }
             doc.mNativePagesPtr.clear();
 
-            nativeCloseDocument(doc.mNativeDocPtr);
+            if (doc.mNativeDocPtr != 0) {
+                nativeCloseDocument(doc.mNativeDocPtr);
+                doc.mNativeDocPtr = 0;
+            }
 
             if (doc.parcelFileDescriptor != null) { //if document was loaded from file
                 try {
@@ -455,11 +645,7 @@ public class PdfiumCore {
     public List<PdfDocument.Link> getPageLinks(PdfDocument doc, int pageIndex) {
         synchronized (lock) {
             List<PdfDocument.Link> links = new ArrayList<>();
-            Long nativePagePtr = doc.mNativePagesPtr.get(pageIndex);
-            if (nativePagePtr == null) {
-                return links;
-            }
-            long[] linkPtrs = nativeGetPageLinks(nativePagePtr);
+            long[] linkPtrs = nativeGetPageLinks(loadPage(doc, pageIndex));
             for (long linkPtr : linkPtrs) {
                 Integer index = nativeGetDestPageIndex(doc.mNativeDocPtr, linkPtr);
                 String uri = nativeGetLinkURI(doc.mNativeDocPtr, linkPtr);
@@ -492,7 +678,7 @@ public class PdfiumCore {
     public Point mapPageCoordsToDevice(PdfDocument doc, int pageIndex, int startX, int startY, int sizeX,
                                        int sizeY, int rotate, double pageX, double pageY) {
         synchronized (lock) {
-            long pagePtr = doc.mNativePagesPtr.get(pageIndex);
+            long pagePtr = loadPage(doc, pageIndex);
             return nativePageCoordsToDevice(pagePtr, startX, startY, sizeX, sizeY, rotate, pageX, pageY);
         }
     }
@@ -512,8 +698,6 @@ public class PdfiumCore {
         }
     }
 
-    //TODO support more by snakeway
-
     /**
      * Map device screen coordinates to page coordinates
      *
@@ -532,32 +716,256 @@ public class PdfiumCore {
     public PointF mapDeviceCoordsToPage(PdfDocument doc, int pageIndex, int startX, int startY, int sizeX,
                                         int sizeY, int rotate, double deviceX, double deviceY) {
         synchronized (lock) {
-            long pagePtr = doc.mNativePagesPtr.get(pageIndex);
+            long pagePtr = loadPage(doc, pageIndex);
             return nativeDeviceCoordsToPage(pagePtr, startX, startY, sizeX, sizeY, rotate, deviceX, deviceY);
         }
     }
 
-    public int getPageTextCount(long pageTextPtr) {
+    /**
+     * Get count of chars on text page
+     */
+    public int getPageTextCount(PdfDocument doc, int pageIndex, long pageTextPtr) {
         synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return 0;
+            }
             return nativePageTextCount(pageTextPtr);
         }
     }
 
-    public int getCharIndexAtPos(long pageTextPtr, double x, double y, double xTolerance, double yTolerance) {
+
+    /**
+     * Get index of the char at given position in page coordinates, -1 if there is none
+     */
+    public int getCharIndexAtPos(PdfDocument doc, int pageIndex, long pageTextPtr, double x, double y, double xTolerance, double yTolerance) {
         synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return -1;
+            }
             return nativeGetCharIndexAtPos(pageTextPtr, x, y, xTolerance, yTolerance);
         }
     }
 
-    public RectF getTextRect(long pageTextPtr, int charIndex) {
+
+    /**
+     * Get bounding box of the char in page coordinates
+     */
+    public RectF getTextRect(PdfDocument doc, int pageIndex, long pageTextPtr, int charIndex) {
         synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return new RectF();
+            }
             return nativeTextRect(pageTextPtr, charIndex);
         }
     }
 
-    public int searchTextUnicode(long pageTextPtr, int charIndex) {
+
+    /**
+     * Get unicode of the char
+     */
+    public int searchTextUnicode(PdfDocument doc, int pageIndex, long pageTextPtr, int charIndex) {
         synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return 0;
+            }
             return nativeSearchTextUnicode(pageTextPtr, charIndex);
         }
     }
+
+
+    /**
+     * Get the text of the whole page in one call, the char at index i is the unicode of char index i,
+     * 0 for chars without unicode and U+FFFD for chars outside the basic multilingual plane, whose
+     * code point {@link #searchTextUnicode(PdfDocument, int, long, int)} returns
+     */
+    public char[] getPageText(PdfDocument doc, int pageIndex, long pageTextPtr) {
+        synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return new char[0];
+            }
+            return nativeGetPageText(pageTextPtr);
+        }
+    }
+
+    /**
+     * Get bounding boxes of count chars from start in one call, in page coordinates
+     *
+     * @return left, top, right and bottom of each char, 4 floats per char
+     */
+    public float[] getTextRects(PdfDocument doc, int pageIndex, long pageTextPtr, int start, int count) {
+        synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return new float[0];
+            }
+            return nativeGetTextRects(pageTextPtr, start, count);
+        }
+    }
+
+    /**
+     * Get the text of the whole page by page index, as {@link #getPageText(PdfDocument, int, long)}.
+     * A page which is not opened is loaded for the call only, so indexing the whole document
+     * does not keep every page in memory.
+     *
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    public char[] extractPageText(PdfDocument doc, int pageIndex) {
+        synchronized (lock) {
+            Long openedTextPagePtr = doc.mNativeTextPagesPtr.get(pageIndex);
+            if (openedTextPagePtr != null) {
+                return nativeGetPageText(openedTextPagePtr);
+            }
+            long pagePtr = nativeLoadPage(getDocumentPtr(doc), pageIndex);
+            try {
+                long pageTextPtr = nativeLoadTextPage(pagePtr);
+                if (pageTextPtr == -1) {
+                    return new char[0];
+                }
+                try {
+                    return nativeGetPageText(pageTextPtr);
+                } finally {
+                    nativeCloseTextPage(pageTextPtr);
+                }
+            } finally {
+                nativeClosePage(pagePtr);
+            }
+        }
+    }
+
+    /**
+     * Get bounding boxes of count chars from start by page index, as
+     * {@link #getTextRects(PdfDocument, int, long, int, int)}. A page which is not opened is loaded
+     * for the call only.
+     *
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    public float[] extractTextRects(PdfDocument doc, int pageIndex, int start, int count) {
+        synchronized (lock) {
+            Long openedTextPagePtr = doc.mNativeTextPagesPtr.get(pageIndex);
+            if (openedTextPagePtr != null) {
+                return nativeGetTextRects(openedTextPagePtr, start, count);
+            }
+            long pagePtr = nativeLoadPage(getDocumentPtr(doc), pageIndex);
+            try {
+                long pageTextPtr = nativeLoadTextPage(pagePtr);
+                if (pageTextPtr == -1) {
+                    return new float[0];
+                }
+                try {
+                    return nativeGetTextRects(pageTextPtr, start, count);
+                } finally {
+                    nativeCloseTextPage(pageTextPtr);
+                }
+            } finally {
+                nativeClosePage(pagePtr);
+            }
+        }
+    }
+
+    /**
+     * Get bounding boxes of count chars from start merged by line in one call, in page coordinates.
+     * Adjacent chars are on the same line until a char top is below the line bottom, chars
+     * without a box are ignored.
+     *
+     * @return left, top, right and bottom of each line, 4 floats per line
+     */
+    public float[] getTextLineRects(PdfDocument doc, int pageIndex, long pageTextPtr, int start, int count) {
+        float[] rects = getTextLineRects(doc, pageIndex, pageTextPtr, new int[]{start, count});
+        return rects.length == 0 ? rects : Arrays.copyOfRange(rects, 1, rects.length);
+    }
+
+    /**
+     * Get bounding boxes of several char ranges merged by line in one call, as
+     * {@link #getTextLineRects(PdfDocument, int, long, int, int)}
+     *
+     * @param ranges start and count of each range
+     * @return for each range, its line count followed by 4 floats per line
+     */
+    public float[] getTextLineRects(PdfDocument doc, int pageIndex, long pageTextPtr, int[] ranges) {
+        synchronized (lock) {
+            if (!isTextPageOpen(doc, pageIndex, pageTextPtr)) {
+                return new float[0];
+            }
+            return nativeGetTextLineRects(pageTextPtr, ranges);
+        }
+    }
+
+    /**
+     * Get bounding boxes of several char ranges merged by line by page index, as
+     * {@link #getTextLineRects(PdfDocument, int, long, int[])}. A page which is not opened is loaded
+     * for the call only.
+     *
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    public float[] extractTextLineRects(PdfDocument doc, int pageIndex, int[] ranges) {
+        synchronized (lock) {
+            Long openedTextPagePtr = doc.mNativeTextPagesPtr.get(pageIndex);
+            if (openedTextPagePtr != null) {
+                return nativeGetTextLineRects(openedTextPagePtr, ranges);
+            }
+            long pagePtr = nativeLoadPage(getDocumentPtr(doc), pageIndex);
+            try {
+                long pageTextPtr = nativeLoadTextPage(pagePtr);
+                if (pageTextPtr == -1) {
+                    return new float[0];
+                }
+                try {
+                    return nativeGetTextLineRects(pageTextPtr, ranges);
+                } finally {
+                    nativeCloseTextPage(pageTextPtr);
+                }
+            } finally {
+                nativeClosePage(pagePtr);
+            }
+        }
+    }
+
+    /**
+     * Count the white rows and columns at each edge of a rendered bitmap. Rows are read directly
+     * and scanned inward from the edges, stopping at the first pixel which is not white.
+     * <p>
+     * Supported bitmap configurations are ARGB_8888 and RGB_565.
+     *
+     * @return top, right, bottom and left margins in pixels, each equal to the bitmap size if it is
+     * all white, or null if the bitmap cannot be read
+     */
+    public static int[] getBitmapMargins(Bitmap bitmap) {
+        return nativeGetBitmapMargins(bitmap);
+    }
+
+    /**
+     * Get the bounding box of the content of a page from its text geometry, without rendering it.
+     * This pdfium build has no bounds for the other page objects, so the box is only given when
+     * every object of the page is text, otherwise, or when the library cannot tell the object types,
+     * the page must be rendered to find it.
+     * A page which is not opened is loaded for the call only.
+     *
+     * @return left, top, right and bottom of the content in fractions of the page size, empty if
+     * the page has no content, or null if the box cannot be computed from the text
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    public RectF getPageContentBounds(PdfDocument doc, int pageIndex) {
+        float[] box;
+        synchronized (lock) {
+            Long openedTextPagePtr = doc.mNativeTextPagesPtr.get(pageIndex);
+            if (openedTextPagePtr != null) {
+                box = nativeGetPageContentBox(loadPage(doc, pageIndex), openedTextPagePtr);
+            } else {
+                long pagePtr = nativeLoadPage(getDocumentPtr(doc), pageIndex);
+                try {
+                    long pageTextPtr = nativeLoadTextPage(pagePtr);
+                    if (pageTextPtr == -1) {
+                        return null;
+                    }
+                    try {
+                        box = nativeGetPageContentBox(pagePtr, pageTextPtr);
+                    } finally {
+                        nativeCloseTextPage(pageTextPtr);
+                    }
+                } finally {
+                    nativeClosePage(pagePtr);
+                }
+            }
+        }
+        return box == null ? null : new RectF(box[0], box[1], box[2], box[3]);
+    }
 }
@@ -0,0 +1,15 @@
+package com.snakeway.pdflibrary;
+
+/**
+ * Polled from native code while a page renders progressively, see
+ * {@link PdfiumCore#renderPageBitmap(PdfDocument, android.graphics.Bitmap, int, int, int, int, int, boolean, RenderPauseCallback)}
+ */
+public interface RenderPauseCallback {
+
+    /**
+     * Called on the rendering thread every few milliseconds
+     *
+     * @return true to abort the render, the bitmap content is then undefined
+     */
+    boolean needToPause();
+}
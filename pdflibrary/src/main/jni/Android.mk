@@ -42,7 +42,7 @@ LOCAL_MODULE := corepdf
 LOCAL_CFLAGS += -DHAVE_PTHREADS
 LOCAL_C_INCLUDES += $(LOCAL_PATH)/include
 LOCAL_SHARED_LIBRARIES += libmodpdfium
-LOCAL_LDLIBS += -llog -landroid -ljnigraphics
+LOCAL_LDLIBS += -llog -landroid -ljnigraphics -ldl
 
 LOCAL_SRC_FILES :=  $(LOCAL_PATH)/src/corePdf.cpp
 
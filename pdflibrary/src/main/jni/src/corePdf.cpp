@@ -10,6 +10,7 @@ extern "C" {
     #include <sys/stat.h>
     #include <string.h>
     #include <stdio.h>
+    #include <dlfcn.h>
 }
 
 #include <android/native_window.h>
@@ -22,7 +23,11 @@ using namespace android;
 #include <fpdf_doc.h>
 #include <string>
 #include <vector>
+#include <algorithm>
 #include <fpdf_text.h>
+#include <fpdf_edit.h>
+#include <fpdf_progressive.h>
+#include <time.h>
 
 static Mutex sLibraryLock;
 
@@ -558,6 +563,168 @@ JNI_FUNC(void, PdfiumCore, nativeRenderPageBitmap)(JNI_ARGS, jlong pagePtr, jobj
     AndroidBitmap_unlockPixels(env, bitmap);
 }
 
+/**
+ * Pause interface handed to pdfium, asks the Java callback at most every PAUSE_CHECK_INTERVAL_MS
+ * whether the render must stop.
+ */
+struct RenderPause : IFSDK_PAUSE {
+    JNIEnv *env;
+    jobject callback;
+    jmethodID needToPauseMethod;
+    long lastCheckMs;
+    bool aborted;
+};
+
+static const long PAUSE_CHECK_INTERVAL_MS = 8;
+
+/**
+ * Results of nativeRenderPageBitmapProgressive, as the RENDER_ constants of PdfiumCore
+ */
+static const jint RENDER_COMPLETED = 0;
+static const jint RENDER_ABORTED = 1;
+static const jint RENDER_FAILED = 2;
+
+static long currentTimeMs() {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return now.tv_sec * 1000L + now.tv_nsec / 1000000L;
+}
+
+static FPDF_BOOL needToPauseNow(IFSDK_PAUSE *pThis) {
+    RenderPause *pause = static_cast<RenderPause*>(pThis);
+    if (pause->aborted) {
+        return 1;
+    }
+    long now = currentTimeMs();
+    if (now - pause->lastCheckMs < PAUSE_CHECK_INTERVAL_MS) {
+        return 0;
+    }
+    pause->lastCheckMs = now;
+    if (pause->env->CallBooleanMethod(pause->callback, pause->needToPauseMethod)) {
+        pause->aborted = true;
+    }
+    if (pause->env->ExceptionCheck()) {
+        pause->env->ExceptionClear();
+        pause->aborted = true;
+    }
+    return pause->aborted ? 1 : 0;
+}
+
+JNI_FUNC(jint, PdfiumCore, nativeRenderPageBitmapProgressive)(JNI_ARGS, jlong pagePtr, jobject bitmap,
+                                             jint dpi, jint startX, jint startY,
+                                             jint drawSizeHor, jint drawSizeVer,
+                                             jboolean renderAnnot, jobject pauseCallback){
+
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+
+    if(page == NULL || bitmap == NULL || pauseCallback == NULL){
+        LOGE("Render page pointers invalid");
+        return RENDER_FAILED;
+    }
+
+    AndroidBitmapInfo info;
+    int ret;
+    if((ret = AndroidBitmap_getInfo(env, bitmap, &info)) < 0) {
+        LOGE("Fetching bitmap info failed: %s", strerror(ret * -1));
+        return RENDER_FAILED;
+    }
+
+    int canvasHorSize = info.width;
+    int canvasVerSize = info.height;
+
+    if(info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 && info.format != ANDROID_BITMAP_FORMAT_RGB_565){
+        LOGE("Bitmap format must be RGBA_8888 or RGB_565");
+        return RENDER_FAILED;
+    }
+
+    jclass callbackClass = env->GetObjectClass(pauseCallback);
+    jmethodID needToPauseMethod = env->GetMethodID(callbackClass, "needToPause", "()Z");
+    env->DeleteLocalRef(callbackClass);
+    if(needToPauseMethod == NULL){
+        LOGE("Pause callback method not found");
+        return RENDER_FAILED;
+    }
+
+    void *addr;
+    if( (ret = AndroidBitmap_lockPixels(env, bitmap, &addr)) != 0 ){
+        LOGE("Locking bitmap failed: %s", strerror(ret * -1));
+        return RENDER_FAILED;
+    }
+
+    void *tmp;
+    int format;
+    int sourceStride;
+    if (info.format == ANDROID_BITMAP_FORMAT_RGB_565) {
+        tmp = malloc(canvasVerSize * canvasHorSize * sizeof(rgb));
+        sourceStride = canvasHorSize * sizeof(rgb);
+        format = FPDFBitmap_BGR;
+    } else {
+        tmp = addr;
+        sourceStride = info.stride;
+        format = FPDFBitmap_BGRA;
+    }
+
+    FPDF_BITMAP pdfBitmap = FPDFBitmap_CreateEx( canvasHorSize, canvasVerSize,
+                                                     format, tmp, sourceStride);
+
+    if(drawSizeHor < canvasHorSize || drawSizeVer < canvasVerSize){
+        FPDFBitmap_FillRect( pdfBitmap, 0, 0, canvasHorSize, canvasVerSize,
+                             0x848484FF); //Gray
+    }
+
+    int baseHorSize = (canvasHorSize < drawSizeHor)? canvasHorSize : (int)drawSizeHor;
+    int baseVerSize = (canvasVerSize < drawSizeVer)? canvasVerSize : (int)drawSizeVer;
+    int baseX = (startX < 0)? 0 : (int)startX;
+    int baseY = (startY < 0)? 0 : (int)startY;
+    int flags = FPDF_REVERSE_BYTE_ORDER;
+
+    if(renderAnnot) {
+    	flags |= FPDF_ANNOT;
+    }
+
+    FPDFBitmap_FillRect( pdfBitmap, baseX, baseY, baseHorSize, baseVerSize,
+                         0xFFFFFFFF); //White
+
+    RenderPause pause;
+    pause.version = 1;
+    pause.NeedToPauseNow = needToPauseNow;
+    pause.user = NULL;
+    pause.env = env;
+    pause.callback = pauseCallback;
+    pause.needToPauseMethod = needToPauseMethod;
+    pause.lastCheckMs = currentTimeMs();
+    pause.aborted = false;
+
+    int status = FPDF_RenderPageBitmap_Start( pdfBitmap, page,
+                                              startX, startY,
+                                              (int)drawSizeHor, (int)drawSizeVer,
+                                              0, flags, &pause );
+    while (status == FPDF_RENDER_TOBECOUNTINUED && !pause.aborted) {
+        status = FPDF_RenderPage_Continue(page, &pause);
+    }
+    FPDF_RenderPage_Close(page);
+
+    int result;
+    if (pause.aborted) {
+        result = RENDER_ABORTED;
+    } else if (status == FPDF_RENDER_DONE) {
+        result = RENDER_COMPLETED;
+    } else {
+        LOGE("Rendering page failed with status %d", status);
+        result = RENDER_FAILED;
+    }
+    if (info.format == ANDROID_BITMAP_FORMAT_RGB_565) {
+        if (result == RENDER_COMPLETED) {
+            rgbBitmapTo565(tmp, sourceStride, addr, &info);
+        }
+        free(tmp);
+    }
+
+    FPDFBitmap_Destroy(pdfBitmap);
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return result;
+}
+
 JNI_FUNC(jstring, PdfiumCore, nativeGetDocumentMetaText)(JNI_ARGS, jlong docPtr, jstring tag) {
     const char *ctag = env->GetStringUTFChars(tag, NULL);
     if (ctag == NULL) {
@@ -754,6 +921,277 @@ JNI_FUNC(jint, PdfiumCore, nativeSearchTextUnicode)(JNI_ARGS, jlong pageTextPtr,
     return jint(unicode);
 }
 
+//get text of the whole page, one char per char index
+JNI_FUNC(jcharArray, PdfiumCore, nativeGetPageText)(JNI_ARGS, jlong pageTextPtr){
+    FPDF_TEXTPAGE page = reinterpret_cast<FPDF_TEXTPAGE>(pageTextPtr);
+    int count = FPDFText_CountChars(page);
+    if(count < 0){ count = 0; }
+    jcharArray result = env->NewCharArray(count);
+    if(result == NULL || count == 0){ return result; }
+    //FPDFText_GetText writes surrogate pairs and skips chars without unicode, which breaks the
+    //alignment with the char indexes, so read one char per index instead
+    std::vector<jchar> buffer(count);
+    for(int i = 0; i < count; i++){
+        unsigned int unicode = FPDFText_GetUnicode(page, i);
+        buffer[i] = unicode > 0xFFFF ? (jchar) 0xFFFD : (jchar) unicode;
+    }
+    env->SetCharArrayRegion(result, 0, count, &buffer[0]);
+    return result;
+}
+
+//get boxes of count chars from start, as left, top, right, bottom
+JNI_FUNC(jfloatArray, PdfiumCore, nativeGetTextRects)(JNI_ARGS, jlong pageTextPtr, jint start, jint count){
+    FPDF_TEXTPAGE page = reinterpret_cast<FPDF_TEXTPAGE>(pageTextPtr);
+    if(count < 0){ count = 0; }
+    jfloatArray result = env->NewFloatArray(count * 4);
+    if(result == NULL || count == 0){ return result; }
+    std::vector<jfloat> rects(count * 4);
+    for(int i = 0; i < count; i++){
+        double left=0;
+        double right=0;
+        double bottom=0;
+        double top=0;
+        FPDFText_GetCharBox(page, start + i, &left, &right, &bottom, &top);
+        rects[i * 4] = (jfloat) left;
+        rects[i * 4 + 1] = (jfloat) top;
+        rects[i * 4 + 2] = (jfloat) right;
+        rects[i * 4 + 3] = (jfloat) bottom;
+    }
+    env->SetFloatArrayRegion(result, 0, count * 4, &rects[0]);
+    return result;
+}
+
+JNI_FUNC(jfloatArray, PdfiumCore, nativeGetTextLineRects)(JNI_ARGS, jlong pageTextPtr, jintArray ranges){
+    FPDF_TEXTPAGE page = reinterpret_cast<FPDF_TEXTPAGE>(pageTextPtr);
+    jsize rangeCount = env->GetArrayLength(ranges) / 2;
+    std::vector<jint> bounds(rangeCount * 2 + 1);
+    if(rangeCount > 0){
+        env->GetIntArrayRegion(ranges, 0, rangeCount * 2, &bounds[0]);
+    }
+    std::vector<jfloat> rects;
+    for(int r = 0; r < rangeCount; r++){
+        size_t countOffset = rects.size();
+        rects.push_back(0);
+        int lineCount = 0;
+        size_t line = 0;
+        int start = bounds[r * 2];
+        int count = bounds[r * 2 + 1];
+        for(int i = 0; i < count; i++){
+            double left=0;
+            double right=0;
+            double bottom=0;
+            double top=0;
+            FPDFText_GetCharBox(page, start + i, &left, &right, &bottom, &top);
+            if(right <= left || top <= bottom){
+                continue;
+            }
+            //A char whose top is below the bottom of the current line starts a new line
+            if(lineCount == 0 || top < rects[line + 3]){
+                line = rects.size();
+                rects.push_back((jfloat) left);
+                rects.push_back((jfloat) top);
+                rects.push_back((jfloat) right);
+                rects.push_back((jfloat) bottom);
+                lineCount++;
+                continue;
+            }
+            rects[line] = std::min(rects[line], (jfloat) left);
+            rects[line + 1] = std::max(rects[line + 1], (jfloat) top);
+            rects[line + 2] = std::max(rects[line + 2], (jfloat) right);
+            rects[line + 3] = std::min(rects[line + 3], (jfloat) bottom);
+        }
+        rects[countOffset] = (jfloat) lineCount;
+    }
+    jfloatArray result = env->NewFloatArray((jsize) rects.size());
+    if(result != NULL && !rects.empty()){
+        env->SetFloatArrayRegion(result, 0, (jsize) rects.size(), &rects[0]);
+    }
+    return result;
+}
+
+static const uint64_t WHITE_WORD = ~(uint64_t) 0;
+
+/**
+ * Index of the first byte of [from, to) which is not 0xFF, or to. White pixels are made of 0xFF
+ * bytes in both RGBA_8888 and RGB_565, so rows are compared 8 bytes at a time whatever the format.
+ */
+static size_t findFirstNonWhiteByte(const uint8_t *row, size_t from, size_t to){
+    size_t i = from;
+    for(; i + 8 <= to; i += 8){
+        uint64_t word;
+        memcpy(&word, row + i, 8);
+        if(word != WHITE_WORD){
+            break;
+        }
+    }
+    for(; i < to; i++){
+        if(row[i] != 0xFF){
+            return i;
+        }
+    }
+    return to;
+}
+
+/**
+ * Index of the last byte of [from, to) which is not 0xFF, or to if there is none
+ */
+static size_t findLastNonWhiteByte(const uint8_t *row, size_t from, size_t to){
+    size_t i = to;
+    for(; i >= from + 8; i -= 8){
+        uint64_t word;
+        memcpy(&word, row + i - 8, 8);
+        if(word != WHITE_WORD){
+            break;
+        }
+    }
+    for(; i > from; i--){
+        if(row[i - 1] != 0xFF){
+            return i - 1;
+        }
+    }
+    return to;
+}
+
+JNI_FUNC(jintArray, PdfiumCore, nativeGetBitmapMargins)(JNI_ARGS, jobject bitmap){
+    AndroidBitmapInfo info;
+    int ret;
+    if((ret = AndroidBitmap_getInfo(env, bitmap, &info)) < 0) {
+        LOGE("Fetching bitmap info failed: %s", strerror(ret * -1));
+        return NULL;
+    }
+    if(info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 && info.format != ANDROID_BITMAP_FORMAT_RGB_565){
+        LOGE("Bitmap format must be RGBA_8888 or RGB_565");
+        return NULL;
+    }
+    void *addr;
+    if( (ret = AndroidBitmap_lockPixels(env, bitmap, &addr)) != 0 ){
+        LOGE("Locking bitmap failed: %s", strerror(ret * -1));
+        return NULL;
+    }
+    const uint8_t *pixels = reinterpret_cast<const uint8_t*>(addr);
+    int width = (int) info.width;
+    int height = (int) info.height;
+    size_t pixelBytes = info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 ? 4 : 2;
+    size_t rowBytes = width * pixelBytes;
+
+    //Rows are scanned inward from the top and the bottom until one has a non white pixel
+    int top = 0;
+    while(top < height && findFirstNonWhiteByte(pixels + top * info.stride, 0, rowBytes) == rowBytes){
+        top++;
+    }
+    int bottom = 0;
+    while(bottom < height - top
+            && findFirstNonWhiteByte(pixels + (height - 1 - bottom) * info.stride, 0, rowBytes) == rowBytes){
+        bottom++;
+    }
+    //Columns are narrowed row by row, each row is only read up to the margins found so far
+    int left = width;
+    int right = width;
+    for(int y = top; y < height - bottom; y++){
+        const uint8_t *row = pixels + y * info.stride;
+        if(left > 0){
+            size_t index = findFirstNonWhiteByte(row, 0, left * pixelBytes);
+            if(index < left * pixelBytes){
+                left = (int) (index / pixelBytes);
+            }
+        }
+        if(right > 0){
+            size_t index = findLastNonWhiteByte(row, (width - right) * pixelBytes, rowBytes);
+            if(index < rowBytes){
+                right = width - 1 - (int) (index / pixelBytes);
+            }
+        }
+    }
+    if(top == height){
+        bottom = height;
+    }
+    AndroidBitmap_unlockPixels(env, bitmap);
+
+    jint margins[] = {top, right, bottom, left};
+    jintArray result = env->NewIntArray(4);
+    if(result != NULL){
+        env->SetIntArrayRegion(result, 0, 4, margins);
+    }
+    return result;
+}
+
+static const int CONTENT_BOX_PRECISION = 10000;
+
+typedef int (*PageObjectTypeFunc)(FPDF_PAGEOBJECT);
+
+/**
+ * FPDFPageObj_GetType is not declared by the headers of this pdfium build, it is looked up in the
+ * loaded library instead. Called with the Java library lock held.
+ */
+static PageObjectTypeFunc getPageObjectTypeFunc(){
+    static bool resolved = false;
+    static PageObjectTypeFunc func = NULL;
+    if(!resolved){
+        void *library = dlopen("libmodpdfium.so", RTLD_NOW);
+        if(library != NULL){
+            func = reinterpret_cast<PageObjectTypeFunc>(dlsym(library, "FPDFPageObj_GetType"));
+        }
+        if(func == NULL){
+            LOGD("FPDFPageObj_GetType not available, content boxes need a render");
+        }
+        resolved = true;
+    }
+    return func;
+}
+
+JNI_FUNC(jfloatArray, PdfiumCore, nativeGetPageContentBox)(JNI_ARGS, jlong pagePtr, jlong pageTextPtr){
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+    FPDF_TEXTPAGE textPage = reinterpret_cast<FPDF_TEXTPAGE>(pageTextPtr);
+    jfloat box[] = {0, 0, 0, 0};
+    int objectCount = FPDFPage_CountObject(page);
+    if(objectCount > 0){
+        //Only text has a geometry here, so any image, path, shading or form object, or a page
+        //whose object types cannot be read, must be rendered to find its content
+        PageObjectTypeFunc getType = getPageObjectTypeFunc();
+        if(getType == NULL){
+            return NULL;
+        }
+        for(int i = 0; i < objectCount; i++){
+            if(getType(FPDFPage_GetObject(page, i)) != FPDF_PAGEOBJ_TEXT){
+                return NULL;
+            }
+        }
+        int rectCount = FPDFText_CountRects(textPage, 0, -1);
+        int minX = CONTENT_BOX_PRECISION;
+        int minY = CONTENT_BOX_PRECISION;
+        int maxX = 0;
+        int maxY = 0;
+        for(int i = 0; i < rectCount; i++){
+            double left = 0;
+            double top = 0;
+            double right = 0;
+            double bottom = 0;
+            FPDFText_GetRect(textPage, i, &left, &top, &right, &bottom);
+            if(right <= left || top <= bottom){
+                continue;
+            }
+            int x1, y1, x2, y2;
+            FPDF_PageToDevice(page, 0, 0, CONTENT_BOX_PRECISION, CONTENT_BOX_PRECISION, 0, left, top, &x1, &y1);
+            FPDF_PageToDevice(page, 0, 0, CONTENT_BOX_PRECISION, CONTENT_BOX_PRECISION, 0, right, bottom, &x2, &y2);
+            minX = std::min(minX, std::min(x1, x2));
+            minY = std::min(minY, std::min(y1, y2));
+            maxX = std::max(maxX, std::max(x1, x2));
+            maxY = std::max(maxY, std::max(y1, y2));
+        }
+        if(maxX > minX && maxY > minY){
+            box[0] = (jfloat) std::max(0, minX) / CONTENT_BOX_PRECISION;
+            box[1] = (jfloat) std::max(0, minY) / CONTENT_BOX_PRECISION;
+            box[2] = (jfloat) std::min(CONTENT_BOX_PRECISION, maxX) / CONTENT_BOX_PRECISION;
+            box[3] = (jfloat) std::min(CONTENT_BOX_PRECISION, maxY) / CONTENT_BOX_PRECISION;
+        }
+    }
+    jfloatArray result = env->NewFloatArray(4);
+    if(result != NULL){
+        env->SetFloatArrayRegion(result, 0, 4, box);
+    }
+    return result;
+}
+
 }//extern C
 
 
@@ -0,0 +1,158 @@
+package com.snakeway.pdfviewer;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.snakeway.pdfviewer.model.PagePart;
+import com.snakeway.pdfviewer.util.BitmapPool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the part index and that the dead nodes left by promotions are neither evicted nor counted
+ */
+@RunWith(AndroidJUnit4.class)
+public class CacheManagerTest {
+
+    private static final int PART_SIZE = 16;
+    private static final long PART_BYTES = PART_SIZE * PART_SIZE * 4;
+
+    private RecordingBitmapPool bitmapPool;
+    private CacheManager cacheManager;
+
+    @Before
+    public void setUp() {
+        bitmapPool = new RecordingBitmapPool();
+        cacheManager = new CacheManager(bitmapPool, 4 * PART_BYTES);
+    }
+
+    @Test
+    public void indexIgnoresFloatNoise() {
+        PagePart part = part(3, 0.1f, 1);
+        cacheManager.cachePart(part);
+        cacheManager.makeANewSet();
+
+        RectF noisy = new RectF(0.1f + 1e-7f, 0.1f, 0.2f - 1e-7f, 0.2f);
+        assertTrue(cacheManager.upPartIfContained(3, noisy, PART_SIZE, PART_SIZE, 2));
+        assertFalse(cacheManager.upPartIfContained(4, noisy, PART_SIZE, PART_SIZE, 2));
+        assertFalse(cacheManager.upPartIfContained(3, noisy, PART_SIZE * 2, PART_SIZE * 2, 2));
+        assertFalse(cacheManager.upPartIfContained(3, new RectF(0.2f, 0.1f, 0.3f, 0.2f), PART_SIZE, PART_SIZE, 2));
+    }
+
+    @Test
+    public void duplicateReplacesPart() {
+        PagePart first = part(0, 0, 1);
+        PagePart second = part(0, 0, 2);
+        cacheManager.cachePart(first);
+        cacheManager.cachePart(second);
+
+        assertEquals(PART_BYTES, cacheManager.getCurrentBytes());
+        assertEquals(1, bitmapPool.released.size());
+        assertTrue(bitmapPool.released.get(0) == first.getRenderedBitmap());
+    }
+
+    @Test
+    public void promotedPartSkipsDeadNode() {
+        PagePart promoted = part(0, 0, 1);
+        cacheManager.cachePart(promoted);
+        PagePart second = part(0, 0.25f, 2);
+        cacheManager.cachePart(second);
+        PagePart third = part(0, 0.5f, 3);
+        cacheManager.cachePart(third);
+        cacheManager.cachePart(part(0, 0.75f, 4));
+        cacheManager.makeANewSet();
+        assertTrue(cacheManager.upPartIfContained(0, bounds(0), PART_SIZE, PART_SIZE, 100));
+
+        // The dead node of the promoted part comes first in the passive queue and must be skipped
+        cacheManager.cachePart(part(1, 0, 5));
+        assertEquals(1, bitmapPool.released.size());
+        assertTrue(bitmapPool.released.get(0) == second.getRenderedBitmap());
+        assertEquals(1, cacheManager.getEvictionCount());
+        assertEquals(4 * PART_BYTES, cacheManager.getCurrentBytes());
+
+        cacheManager.cachePart(part(1, 0.25f, 6));
+        assertTrue(bitmapPool.released.get(1) == third.getRenderedBitmap());
+        assertEquals(4 * PART_BYTES, cacheManager.getCurrentBytes());
+        assertFalse(bitmapPool.released.contains(promoted.getRenderedBitmap()));
+        assertTrue(cacheManager.upPartIfContained(0, bounds(0), PART_SIZE, PART_SIZE, 100));
+    }
+
+    @Test
+    public void thumbnailSharesBudget() {
+        PagePart oldest = part(0, 0, 1);
+        cacheManager.cachePart(oldest);
+        for (int i = 1; i < 4; i++) {
+            cacheManager.cachePart(part(i, 0, i + 1));
+        }
+        cacheManager.makeANewSet();
+
+        Bitmap bitmap = Bitmap.createBitmap(PART_SIZE, PART_SIZE, Bitmap.Config.ARGB_8888);
+        cacheManager.cacheThumbnail(new PagePart(0, bitmap, new RectF(0, 0, 1, 1), true, 0));
+        assertEquals(4 * PART_BYTES, cacheManager.getCurrentBytes());
+        assertEquals(1, bitmapPool.released.size());
+        assertTrue(bitmapPool.released.get(0) == oldest.getRenderedBitmap());
+    }
+
+    @Test
+    public void compactionKeepsLiveParts() {
+        cacheManager = new CacheManager(bitmapPool, 100 * PART_BYTES);
+        int count = 64;
+        for (int i = 0; i < count; i++) {
+            cacheManager.cachePart(part(i, 0, i));
+        }
+        cacheManager.makeANewSet();
+        // Promoting most parts leaves enough dead nodes to compact the passive queue
+        for (int i = 0; i < count - 4; i++) {
+            assertTrue(cacheManager.upPartIfContained(i, bounds(0), PART_SIZE, PART_SIZE, count + i));
+        }
+        assertEquals(count * PART_BYTES, cacheManager.getCurrentBytes());
+
+        cacheManager.makeANewSet();
+        cacheManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, cacheManager.getCurrentBytes());
+        assertEquals(count, cacheManager.getEvictionCount());
+        assertEquals(count, bitmapPool.released.size());
+        for (int i = 0; i < count; i++) {
+            assertFalse(cacheManager.upPartIfContained(i, bounds(0), PART_SIZE, PART_SIZE, 0));
+        }
+    }
+
+    private static RectF bounds(float left) {
+        return new RectF(left, 0.1f, left + 0.1f, 0.2f);
+    }
+
+    private static PagePart part(int page, float left, int order) {
+        Bitmap bitmap = Bitmap.createBitmap(PART_SIZE, PART_SIZE, Bitmap.Config.ARGB_8888);
+        PagePart part = new PagePart(page, bitmap, bounds(left), false, order);
+        part.setZoom(1);
+        return part;
+    }
+
+    /**
+     * Records the released bitmaps instead of pooling them
+     */
+    private static class RecordingBitmapPool extends BitmapPool {
+        final List<Bitmap> released = new ArrayList<>();
+
+        RecordingBitmapPool() {
+            super(8);
+        }
+
+        @Override
+        public void release(Bitmap bitmap) {
+            released.add(bitmap);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.snakeway.pdfviewer;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Debug;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.snakeway.pdfviewer.listener.OnRenderListener;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drawing a frame of a rendered document must not allocate, the garbage collector would otherwise
+ * run while scrolling
+ */
+@RunWith(AndroidJUnit4.class)
+public class PDFViewDrawAllocationTest {
+
+    private static final int PAGE_COUNT = 5;
+    private static final int FRAME_COUNT = 30;
+    private static final long RENDER_TIMEOUT_MS = 10000;
+    private static final long RENDER_IDLE_MS = 500;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void onDrawDoesNotAllocate() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final File file = writeSamplePdf(instrumentation.getTargetContext());
+        final CountDownLatch rendered = new CountDownLatch(1);
+        final PDFView[] pdfView = new PDFView[1];
+
+        try (ActivityScenario<TestActivity> scenario = ActivityScenario.launch(TestActivity.class)) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<TestActivity>() {
+                @Override
+                public void perform(TestActivity activity) {
+                    pdfView[0] = new PDFView(activity, null);
+                    activity.setContentView(pdfView[0]);
+                    pdfView[0].fromFile(file)
+                            .hardwareBitmaps(false)
+                            .onRender(new OnRenderListener() {
+                                @Override
+                                public void onInitiallyRendered(int nbPages) {
+                                    rendered.countDown();
+                                }
+                            })
+                            .load();
+                }
+            });
+            assertTrue("document not rendered", rendered.await(RENDER_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            waitForRenderingIdle(instrumentation, pdfView[0]);
+
+            final long[] allocations = new long[1];
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    PDFView view = pdfView[0];
+                    Bitmap bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(), Bitmap.Config.ARGB_8888);
+                    Canvas canvas = new Canvas(bitmap);
+                    // The first frame sorts the cached parts, later frames reuse them
+                    view.onDraw(canvas);
+
+                    Debug.resetThreadAllocCount();
+                    Debug.startAllocCounting();
+                    for (int i = 0; i < FRAME_COUNT; i++) {
+                        view.onDraw(canvas);
+                    }
+                    Debug.stopAllocCounting();
+                    allocations[0] = Debug.getThreadAllocCount();
+                    bitmap.recycle();
+                }
+            });
+            assertEquals("objects allocated by " + FRAME_COUNT + " frames", 0, allocations[0]);
+        }
+    }
+
+    /**
+     * Wait until no part has been rendered for a while, so the frames draw the same parts
+     */
+    private static void waitForRenderingIdle(Instrumentation instrumentation, final PDFView pdfView) throws InterruptedException {
+        final long[] count = new long[1];
+        long previous = -1;
+        long deadline = System.currentTimeMillis() + RENDER_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    count[0] = pdfView.getRenderedRenderingTaskCount();
+                }
+            });
+            if (count[0] == previous) {
+                return;
+            }
+            previous = count[0];
+            Thread.sleep(RENDER_IDLE_MS);
+        }
+    }
+
+    private static File writeSamplePdf(Context context) throws IOException {
+        android.graphics.pdf.PdfDocument document = new android.graphics.pdf.PdfDocument();
+        Paint paint = new Paint();
+        paint.setTextSize(24);
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            android.graphics.pdf.PdfDocument.Page page = document.startPage(
+                    new android.graphics.pdf.PdfDocument.PageInfo.Builder(300, 400, i + 1).create());
+            page.getCanvas().drawText("Page " + (i + 1), 40, 80, paint);
+            document.finishPage(page);
+        }
+        File file = new File(context.getCacheDir(), "draw_allocation.pdf");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            document.writeTo(out);
+        } finally {
+            out.close();
+            document.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,9 @@
+package com.snakeway.pdfviewer;
+
+import android.app.Activity;
+
+/**
+ * Empty activity hosting the views under test, so they are attached to a window
+ */
+public class TestActivity extends Activity {
+}
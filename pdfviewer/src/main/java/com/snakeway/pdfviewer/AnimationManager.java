@@ -67,13 +67,16 @@ class AnimationManager {
         stopAll();
         flinging = true;
         scroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
+        pdfView.prefetchTo(scroller.getFinalX(), scroller.getFinalY());
     }
 
     public void startPageFlingAnimation(float targetOffset) {
         if (pdfView.isSwipeVertical()) {
             startYAnimation(pdfView.getCurrentYOffset(), targetOffset);
+            pdfView.prefetchTo(pdfView.getCurrentXOffset(), targetOffset);
         } else {
             startXAnimation(pdfView.getCurrentXOffset(), targetOffset);
+            pdfView.prefetchTo(targetOffset, pdfView.getCurrentYOffset());
         }
         pageFlinging = true;
     }
@@ -84,6 +87,7 @@ class AnimationManager {
             pdfView.loadPageByOffset();
         } else if (flinging) { // fling finished
             flinging = false;
+            pdfView.cancelPrefetch();
             pdfView.loadPages();
             hideHandle();
             pdfView.performPageSnap();
@@ -102,6 +106,7 @@ class AnimationManager {
     public void stopFling() {
         flinging = false;
         scroller.forceFinished(true);
+        pdfView.cancelPrefetch();
     }
 
     public boolean isFlinging() {
@@ -119,6 +124,7 @@ class AnimationManager {
 
         @Override
         public void onAnimationCancel(Animator animation) {
+            pdfView.cancelPrefetch();
             pdfView.loadPages();
             pageFlinging = false;
             hideHandle();
@@ -127,6 +133,7 @@ class AnimationManager {
 
         @Override
         public void onAnimationEnd(Animator animation) {
+            pdfView.cancelPrefetch();
             pdfView.loadPages();
             pageFlinging = false;
             hideHandle();
@@ -145,6 +152,7 @@ class AnimationManager {
 
         @Override
         public void onAnimationCancel(Animator animation) {
+            pdfView.cancelPrefetch();
             pdfView.loadPages();
             pageFlinging = false;
             hideHandle();
@@ -153,6 +161,7 @@ class AnimationManager {
 
         @Override
         public void onAnimationEnd(Animator animation) {
+            pdfView.cancelPrefetch();
             pdfView.loadPages();
             pageFlinging = false;
             hideHandle();
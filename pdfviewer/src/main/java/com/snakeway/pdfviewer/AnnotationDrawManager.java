@@ -79,7 +79,7 @@ final class AnnotationDrawManager {
     }
 
     public void draw(Canvas canvas, int page) {
-        Long textPagesPtr = pdfView.pdfFile.pdfDocument.getTextPagesPtr(page);//因为刷新前后几页可以自定义,比如前后2页可能超过viewpage渲染,如果当前页还没有渲染则跳过批注绘制
+        Long textPagesPtr = pdfView.pdfFile.getTextPage(page);//因为刷新前后几页可以自定义,比如前后2页可能超过viewpage渲染,如果当前页还没有渲染则跳过批注绘制
         if (textPagesPtr == null) {
             return;
         }
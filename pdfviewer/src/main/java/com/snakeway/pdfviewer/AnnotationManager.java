@@ -31,6 +31,7 @@ import com.snakeway.pdfviewer.listener.OnAreaTouchListener;
 import com.snakeway.pdfviewer.model.SearchTextInfo;
 import com.snakeway.pdfviewer.model.TargetTextInfo;
 import com.snakeway.pdfviewer.model.TextRemarkInfo;
+import com.snakeway.pdfviewer.util.ArrayUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -220,17 +221,8 @@ final class AnnotationManager {
                     if (currentTextIndex == -1) {
                         return true;
                     }
-                    int start = areaMarkAnnotation.startIndex;
-                    int count = start - currentTextIndex;
-                    boolean desc = count > 0;
-                    count = Math.abs(count);
                     areaRects.clear();
-                    for (int i = 0; i <= count; i++) {
-                        areaRects.add(pdfView.pdfiumCore.getTextRect(currentTargetTextInfo.getPagePtr(), start + (desc ? -1 * i : i)));
-                    }
-                    if (desc) {
-                        Collections.reverse(areaRects);
-                    }
+                    areaRects.addAll(getLineRects(currentTargetTextInfo.getPage(), currentTargetTextInfo.getPagePtr(), areaMarkAnnotation.startIndex, currentTextIndex));
                     areaMarkAnnotation.update(currentTextIndex, areaRects);
                     pdfView.redrawRenderingView();
                 }
@@ -331,30 +323,12 @@ final class AnnotationManager {
                         return true;
                     }
                     if (!isMoveEnd) {
-                        int start = currentTextIndex;
-                        int count = start - areaMarkAnnotation.endIndex;
-                        boolean desc = count > 0;
-                        count = Math.abs(count);
                         areaRects.clear();
-                        for (int i = 0; i <= count; i++) {
-                            areaRects.add(pdfView.pdfiumCore.getTextRect(theTargetTextInfo.getPagePtr(), start + (desc ? -1 * i : i)));
-                        }
-                        if (desc) {
-                            Collections.reverse(areaRects);
-                        }
+                        areaRects.addAll(getLineRects(theTargetTextInfo.getPage(), theTargetTextInfo.getPagePtr(), currentTextIndex, areaMarkAnnotation.endIndex));
                         areaMarkAnnotation.updateAll(currentTextIndex, areaMarkAnnotation.endIndex, areaRects);
                     } else {
-                        int start = areaMarkAnnotation.startIndex;
-                        int count = start - currentTextIndex;
-                        boolean desc = count > 0;
-                        count = Math.abs(count);
                         areaRects.clear();
-                        for (int i = 0; i <= count; i++) {
-                            areaRects.add(pdfView.pdfiumCore.getTextRect(theTargetTextInfo.getPagePtr(), start + (desc ? -1 * i : i)));
-                        }
-                        if (desc) {
-                            Collections.reverse(areaRects);
-                        }
+                        areaRects.addAll(getLineRects(theTargetTextInfo.getPage(), theTargetTextInfo.getPagePtr(), areaMarkAnnotation.startIndex, currentTextIndex));
                         areaMarkAnnotation.update(currentTextIndex, areaRects);
                     }
                     pdfView.redrawRenderingView();
@@ -474,7 +448,7 @@ final class AnnotationManager {
             areaDownX = downX;
             areaDownY = downY;
             downTargetTextInfo = targetTextInfo;
-            areaMarkAnnotation = new MarkAnnotation(downTargetTextInfo.getPage(), downTargetTextInfo.getPageSize(),pdfView.getDpi(), areaPen, MarkAreaType.AREACHOOSE, downTargetTextInfo.getTextIndex(), downTargetTextInfo.getTextIndex(), pdfView.pdfiumCore.getTextRect(downTargetTextInfo.getPagePtr(), downTargetTextInfo.getTextIndex()));
+            areaMarkAnnotation = new MarkAnnotation(downTargetTextInfo.getPage(), downTargetTextInfo.getPageSize(),pdfView.getDpi(), areaPen, MarkAreaType.AREACHOOSE, downTargetTextInfo.getTextIndex(), downTargetTextInfo.getTextIndex(), pdfView.pdfiumCore.getTextRect(pdfView.pdfFile.pdfDocument, downTargetTextInfo.getPage(), downTargetTextInfo.getPagePtr(), downTargetTextInfo.getTextIndex()));
         }
         return true;
     }
@@ -621,13 +595,13 @@ final class AnnotationManager {
 //        if (!inPage) {
 //            return null;
 //        }
-        Long pagePtr = pdfView.pdfFile.pdfDocument.getTextPagesPtr(coord[0]);
+        Long pagePtr = pdfView.pdfFile.getTextPage(coord[0]);
         if (pagePtr == null) {
             return null;
         }
         int searchRange = getSearchRange(coord[0]);
         SizeF pdfCoordinate = CoordinateUtils.toPdfPointCoordinate(pdfView, coord[0], coord[1], coord[2]);
-        int textIndex = pdfView.pdfiumCore.getCharIndexAtPos(pagePtr, pdfCoordinate.getWidth(), pdfCoordinate.getHeight(), searchRange, searchRange);
+        int textIndex = pdfView.pdfiumCore.getCharIndexAtPos(pdfView.pdfFile.pdfDocument, coord[0], pagePtr, pdfCoordinate.getWidth(), pdfCoordinate.getHeight(), searchRange, searchRange);
 
         return new TargetTextInfo(coord[0], size, textIndex, pagePtr, inPage, scale);
     }
@@ -644,7 +618,7 @@ final class AnnotationManager {
             Log.e(TAG, "don't have mark pen");
             return false;
         }
-        MarkAnnotation markAnnotation = new MarkAnnotation(areaMarkAnnotation.page, areaMarkAnnotation.pageSize,pdfView.getDpi(), markPen, markAreaType, areaMarkAnnotation.startIndex, areaMarkAnnotation.startIndex, pdfView.pdfiumCore.getTextRect(downTargetTextInfo.getPagePtr(), downTargetTextInfo.getTextIndex()));
+        MarkAnnotation markAnnotation = new MarkAnnotation(areaMarkAnnotation.page, areaMarkAnnotation.pageSize,pdfView.getDpi(), markPen, markAreaType, areaMarkAnnotation.startIndex, areaMarkAnnotation.startIndex, pdfView.pdfiumCore.getTextRect(pdfView.pdfFile.pdfDocument, downTargetTextInfo.getPage(), downTargetTextInfo.getPagePtr(), downTargetTextInfo.getTextIndex()));
         markAnnotation.update(areaMarkAnnotation.endIndex, areaRects);
         if (markAnnotation.data.size() >= 1) {
             markAnnotation.drawed = false;
@@ -965,7 +939,7 @@ final class AnnotationManager {
         if (action == MotionEvent.ACTION_DOWN && !inPage) {
             return false;
         }
-        Long pagePtr = pdfView.pdfFile.pdfDocument.getTextPagesPtr(coord[0]);
+        Long pagePtr = pdfView.pdfFile.getTextPage(coord[0]);
         if (pagePtr == null) {
             return false;
         }
@@ -973,31 +947,19 @@ final class AnnotationManager {
         //转换为pdf页坐标
         SizeF pdfCoordinate = CoordinateUtils.toPdfPointCoordinate(pdfView, coord[0], coord[1], coord[2]);
         //检索的文本下标
-        int textIndex = pdfView.pdfiumCore.getCharIndexAtPos(pagePtr, pdfCoordinate.getWidth(), pdfCoordinate.getHeight(), searchRange, searchRange);
+        int textIndex = pdfView.pdfiumCore.getCharIndexAtPos(pdfView.pdfFile.pdfDocument, coord[0], pagePtr, pdfCoordinate.getWidth(), pdfCoordinate.getHeight(), searchRange, searchRange);
         if (action == MotionEvent.ACTION_DOWN) {
             if (textIndex == -1) {
                 return false;
             }
-            this.drawingMarkAnnotation = new MarkAnnotation(coord[0], size,pdfView.getDpi(), markPen, MarkAreaType.EXTRA, textIndex, textIndex, pdfView.pdfiumCore.getTextRect(pagePtr, textIndex));
+            this.drawingMarkAnnotation = new MarkAnnotation(coord[0], size,pdfView.getDpi(), markPen, MarkAreaType.EXTRA, textIndex, textIndex, pdfView.pdfiumCore.getTextRect(pdfView.pdfFile.pdfDocument, coord[0], pagePtr, textIndex));
         } else if (action == MotionEvent.ACTION_MOVE) {
             if (drawingMarkAnnotation != null) {
                 if (drawingMarkAnnotation.page == coord[0] && inPage) {
                     if (textIndex == -1) {
                         return true;
                     } else {
-                        int start = ((MarkAnnotation) drawingMarkAnnotation).startIndex;
-                        int count = start - textIndex;
-                        //是否反序
-                        boolean desc = count > 0;
-                        count = Math.abs(count);
-                        ArrayList<RectF> rects = new ArrayList<>();
-                        for (int i = 0; i <= count; i++) {
-                            rects.add(pdfView.pdfiumCore.getTextRect(pagePtr, start + (desc ? -1 * i : i)));
-                        }
-                        //如果倒序选，反转排序。保证列表为正序选择
-                        if (desc) {
-                            Collections.reverse(rects);
-                        }
+                        ArrayList<RectF> rects = getLineRects(coord[0], pagePtr, ((MarkAnnotation) drawingMarkAnnotation).startIndex, textIndex);
                         ((MarkAnnotation) drawingMarkAnnotation).update(textIndex, rects);
                     }
                 } else {
@@ -1012,17 +974,7 @@ final class AnnotationManager {
         } else {
             if (drawingMarkAnnotation != null) {
                 if (drawingMarkAnnotation.page == coord[0] && inPage && textIndex != -1) {
-                    int start = ((MarkAnnotation) drawingMarkAnnotation).startIndex;
-                    int count = ((MarkAnnotation) drawingMarkAnnotation).startIndex - textIndex;
-                    boolean desc = count > 0;
-                    count = Math.abs(count);
-                    ArrayList<RectF> rectFS = new ArrayList<>();
-                    for (int i = 0; i <= count; i++) {
-                        rectFS.add(pdfView.pdfiumCore.getTextRect(pagePtr, start + (desc ? -1 * i : i)));
-                    }
-                    if (desc) {
-                        Collections.reverse(rectFS);
-                    }
+                    ArrayList<RectF> rectFS = getLineRects(coord[0], pagePtr, ((MarkAnnotation) drawingMarkAnnotation).startIndex, textIndex);
                     ((MarkAnnotation) drawingMarkAnnotation).update(textIndex, rectFS);
                 }
                 if (((MarkAnnotation) drawingMarkAnnotation).data.size() >= 1) {
@@ -1036,26 +988,24 @@ final class AnnotationManager {
         return true;
     }
 
+    /**
+     * Rects of the lines covering the chars between two indexes in text order, whatever the
+     * selection direction, read and merged in one native call
+     */
+    private ArrayList<RectF> getLineRects(int page, long textPagesPtr, int index1, int index2) {
+        int start = Math.min(index1, index2);
+        return ArrayUtils.toRects(pdfView.pdfiumCore.getTextLineRects(pdfView.pdfFile.pdfDocument, page, textPagesPtr, start, Math.abs(index1 - index2) + 1));
+    }
+
     public void initAnnotationData(MarkAnnotation markAnnotation) {
         if (markAnnotation == null || (markAnnotation.startIndex == 0 && markAnnotation.endIndex == 0)) {
             return;
         }
-        Long textPagesPtr = pdfView.pdfFile.pdfDocument.getTextPagesPtr(markAnnotation.page);//因为会刷新前后几页,如果当前页还没有渲染
+        Long textPagesPtr = pdfView.pdfFile.getTextPage(markAnnotation.page);//因为会刷新前后几页,如果当前页还没有渲染
         if (textPagesPtr == null) {
             return;
         }
-        int start = markAnnotation.startIndex;
-        int count = markAnnotation.startIndex - markAnnotation.endIndex;
-        boolean desc = count > 0;
-        count = Math.abs(count);
-        ArrayList<RectF> rects = new ArrayList<>();
-        for (int i = 0; i <= count; i++) {
-            rects.add(pdfView.pdfiumCore.getTextRect(textPagesPtr, start + (desc ? -1 * i : i)));
-        }
-        if (desc) {
-            Collections.reverse(rects);
-        }
-        markAnnotation.updateRects(rects);
+        markAnnotation.updateRects(getLineRects(markAnnotation.page, textPagesPtr, markAnnotation.startIndex, markAnnotation.endIndex));
         markAnnotation.drawed=false;
         markAnnotation.needInit=false;
     }
@@ -1,101 +1,314 @@
 package com.snakeway.pdfviewer;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.RectF;
-
-import androidx.annotation.Nullable;
+import android.os.Build;
 
 import com.snakeway.pdfviewer.model.PagePart;
 import com.snakeway.pdfviewer.util.BitmapMemoryCacheHelper;
+import com.snakeway.pdfviewer.util.BitmapPool;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.PriorityQueue;
 
+import static com.snakeway.pdfviewer.util.Constants.Cache.CACHE_MEMORY_RATIO;
 import static com.snakeway.pdfviewer.util.Constants.Cache.CACHE_SIZE;
+import static com.snakeway.pdfviewer.util.Constants.Cache.MIP_LEVEL_RANGE;
 import static com.snakeway.pdfviewer.util.Constants.Cache.THUMBNAILS_CACHE_SIZE;
 
+/**
+ * Keeps the rendered parts within a byte budget, evicting the parts of the previous set first.
+ * <p>
+ * Parts are indexed by page and bounds so lookups and promotions are constant time. The eviction
+ * queues hold {@link CacheEntry} nodes, a promoted part leaves a dead node behind in the passive
+ * queue which is skipped when polled.
+ * <p>
+ * Each part belongs to the mip level of the zoom it was rendered for. After a zoom, the parts of
+ * nearby levels stay in the passive set and are drawn scaled below the parts of the current level,
+ * the passive parts of the levels farthest from the current one are evicted first.
+ * <p>
+ * The parts sorted in drawing order are kept between frames and only sorted again when the cached
+ * parts change, so drawing a frame allocates nothing.
+ */
 class CacheManager {
     public static final String ANNOTATION_CACHE_TAG = "annotation_cache_";
 
     private final BitmapMemoryCacheHelper bitmapMemoryCacheHelper = new BitmapMemoryCacheHelper(5);
 
-    private final PriorityQueue<PagePart> passiveCache;
+    private final PriorityQueue<CacheEntry> passiveCache;
+
+    private final PriorityQueue<CacheEntry> activeCache;
 
-    private final PriorityQueue<PagePart> activeCache;
+    /**
+     * Live entry of each cached part
+     */
+    private final HashMap<PartKey, CacheEntry> index = new HashMap<>();
+
+    /**
+     * Reused for lookups so scrolling does not allocate a key per grid cell
+     */
+    private final PartKey lookupKey = new PartKey();
+
+    /**
+     * Dead nodes left in {@link #passiveCache} by promotions
+     */
+    private int deadPassiveCount = 0;
 
     private final List<PagePart> thumbnails;
 
     private final Object passiveActiveLock = new Object();
 
-    private final PagePartComparator orderComparator = new PagePartComparator();
+    private final CacheEntryComparator orderComparator = new CacheEntryComparator();
+
+    /**
+     * Part of the area of a part which must be covered to skip drawing it, below 1 for float noise
+     */
+    private static final float COVERED_AREA_RATIO = 0.999f;
+
+    private final LevelComparator levelComparator = new LevelComparator();
+
+    private final DrawOrderComparator drawOrderComparator = new DrawOrderComparator();
+
+    /**
+     * Mip level of the zoom the current set is loaded for
+     */
+    private int currentLevel = 0;
+
+    /**
+     * Incremented each time a part is added, promoted or removed
+     */
+    private int version = 0;
+
+    /**
+     * Live entries in drawing order for {@link #drawLevel}, valid while {@link #drawVersion} is current
+     */
+    private final ArrayList<CacheEntry> drawEntries = new ArrayList<>();
+
+    private int drawVersion = -1;
+
+    private int drawLevel = 0;
+
+    /**
+     * Visible parts rendered for the drawn zoom, they cover the parts of other zooms
+     */
+    private final ArrayList<PagePart> coveringParts = new ArrayList<>();
+
+    private final BitmapPool bitmapPool;
+
+    private final long maxBytes;
+
+    private long currentBytes = 0;
 
-    public CacheManager() {
+    private long peakBytes = 0;
+
+    private long evictionCount = 0;
+
+    public CacheManager(BitmapPool bitmapPool, long maxBytes) {
+        this.bitmapPool = bitmapPool;
+        this.maxBytes = maxBytes;
         activeCache = new PriorityQueue<>(CACHE_SIZE, orderComparator);
-        passiveCache = new PriorityQueue<>(CACHE_SIZE, orderComparator);
+        passiveCache = new PriorityQueue<>(CACHE_SIZE, levelComparator);
         thumbnails = new ArrayList<>();
     }
 
     public void cachePart(PagePart part) {
         synchronized (passiveActiveLock) {
-            // If cache too big, remove and recycle
-            makeAFreeSpace();
+            // If cache too big, remove and release bitmaps to the pool
+            makeAFreeSpace(maxBytes - getByteCount(part));
+
+            // Then add part, replacing a duplicate
+            Bitmap bitmap = part.getRenderedBitmap();
+            CacheEntry entry = new CacheEntry(new PartKey(part.getPage(), part.getPageRelativeBounds(),
+                    bitmap.getWidth(), bitmap.getHeight()), part, part.getCacheOrder());
+            CacheEntry previous = index.put(entry.key, entry);
+            if (previous != null) {
+                removeEntry(previous);
+            }
+            activeCache.offer(entry);
+            addBytes(getByteCount(part));
+            version++;
+        }
+    }
 
-            // Then add part
-            activeCache.offer(part);
+    /**
+     * Mip level of a zoom, levels are a factor of 2 apart
+     */
+    static int getLevel(float zoom) {
+        return zoom > 0 ? (int) Math.round(Math.log(zoom) / Math.log(2)) : 0;
+    }
+
+    /**
+     * Record the zoom of the set about to be loaded, parts too many levels away are evicted
+     */
+    public void setCurrentZoom(float zoom) {
+        int level = getLevel(zoom);
+        synchronized (passiveActiveLock) {
+            if (level == currentLevel) {
+                return;
+            }
+            currentLevel = level;
+            // The passive order depends on the current level, rebuild the queue
+            List<CacheEntry> live = new ArrayList<>(passiveCache.size() - deadPassiveCount);
+            for (CacheEntry entry : passiveCache) {
+                if (entry.dead) {
+                    continue;
+                }
+                if (Math.abs(entry.level - level) > MIP_LEVEL_RANGE) {
+                    evict(entry, false);
+                } else {
+                    live.add(entry);
+                }
+            }
+            passiveCache.clear();
+            passiveCache.addAll(live);
+            deadPassiveCount = 0;
         }
     }
 
     public void makeANewSet() {
         synchronized (passiveActiveLock) {
-            passiveCache.addAll(activeCache);
+            for (CacheEntry entry : activeCache) {
+                if (!entry.dead) {
+                    entry.active = false;
+                    passiveCache.offer(entry);
+                }
+            }
             activeCache.clear();
         }
     }
 
-    private void makeAFreeSpace() {
+    /**
+     * Evict parts until the cache uses at most the given bytes, parts of the previous set first
+     */
+    private void makeAFreeSpace(long targetBytes) {
         synchronized (passiveActiveLock) {
-            while ((activeCache.size() + passiveCache.size()) >= CACHE_SIZE &&
-                    !passiveCache.isEmpty()) {
-                PagePart part = passiveCache.poll();
-                part.getRenderedBitmap().recycle();
+            while (currentBytes > targetBytes && !passiveCache.isEmpty()) {
+                evict(passiveCache.poll(), true);
             }
 
-            while ((activeCache.size() + passiveCache.size()) >= CACHE_SIZE &&
-                    !activeCache.isEmpty()) {
-                activeCache.poll().getRenderedBitmap().recycle();
+            while (currentBytes > targetBytes && !activeCache.isEmpty()) {
+                evict(activeCache.poll(), false);
+            }
+        }
+    }
+
+    private void evict(CacheEntry entry, boolean passive) {
+        if (entry.dead) {
+            if (passive) {
+                deadPassiveCount--;
             }
+            return;
         }
+        entry.dead = true;
+        index.remove(entry.key);
+        currentBytes -= getByteCount(entry.part);
+        evictionCount++;
+        version++;
+        bitmapPool.release(entry.part.getRenderedBitmap());
+    }
+
+    /**
+     * Drop an entry which is still referenced by one of the queues
+     */
+    private void removeEntry(CacheEntry entry) {
+        entry.dead = true;
+        if (!entry.active) {
+            deadPassiveCount++;
+        }
+        currentBytes -= getByteCount(entry.part);
+        bitmapPool.release(entry.part.getRenderedBitmap());
+    }
+
+    private void addBytes(long bytes) {
+        currentBytes += bytes;
+        if (currentBytes > peakBytes) {
+            peakBytes = currentBytes;
+        }
+    }
+
+    /**
+     * Release memory according to a {@link ComponentCallbacks2#onTrimMemory(int)} level
+     */
+    public void onTrimMemory(int level) {
+        synchronized (passiveActiveLock) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                // Nothing is visible, keep only the parts of the current set
+                while (!passiveCache.isEmpty()) {
+                    evict(passiveCache.poll(), true);
+                }
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                makeAFreeSpace(maxBytes / 2);
+            }
+        }
+        bitmapPool.clear();
     }
 
     public void cacheThumbnail(PagePart part) {
         synchronized (thumbnails) {
-            // If cache too big, remove and recycle
+            // If cache too big, remove and release bitmaps to the pool
             while (thumbnails.size() >= THUMBNAILS_CACHE_SIZE) {
-                thumbnails.remove(0).getRenderedBitmap().recycle();
+                PagePart thumbnail = thumbnails.remove(0);
+                synchronized (passiveActiveLock) {
+                    currentBytes -= getByteCount(thumbnail);
+                    evictionCount++;
+                }
+                bitmapPool.release(thumbnail.getRenderedBitmap());
             }
 
-            // Then add thumbnail
-            addWithoutDuplicates(thumbnails, part);
+            // Then add thumbnail, evicting parts so that it fits in the same budget
+            if (addWithoutDuplicates(thumbnails, part)) {
+                synchronized (passiveActiveLock) {
+                    makeAFreeSpace(maxBytes - getByteCount(part));
+                    addBytes(getByteCount(part));
+                }
+            }
         }
 
     }
 
-    public boolean upPartIfContained(int page, RectF pageRelativeBounds, int toOrder) {
-        PagePart fakePart = new PagePart(page, null, pageRelativeBounds, false, 0);
-
-        PagePart found;
+    public boolean upPartIfContained(int page, RectF pageRelativeBounds, int width, int height, int toOrder) {
         synchronized (passiveActiveLock) {
-            if ((found = find(passiveCache, fakePart)) != null) {
-                passiveCache.remove(found);
-                found.setCacheOrder(toOrder);
-                activeCache.offer(found);
-                return true;
+            lookupKey.set(page, pageRelativeBounds, width, height);
+            CacheEntry found = index.get(lookupKey);
+            if (found == null) {
+                return false;
+            }
+            if (!found.active) {
+                // Leave the passive node dead in its queue rather than removing it in O(n)
+                found.dead = true;
+                deadPassiveCount++;
+                found.part.setCacheOrder(toOrder);
+                CacheEntry promoted = new CacheEntry(found.key, found.part, toOrder);
+                index.put(promoted.key, promoted);
+                activeCache.offer(promoted);
+                version++;
+                compactPassiveCacheIfNeeded();
             }
+            return true;
+        }
+    }
 
-            return find(activeCache, fakePart) != null;
+    private void compactPassiveCacheIfNeeded() {
+        if (deadPassiveCount < 32 || deadPassiveCount < passiveCache.size() / 2) {
+            return;
+        }
+        List<CacheEntry> live = new ArrayList<>(passiveCache.size() - deadPassiveCount);
+        for (CacheEntry entry : passiveCache) {
+            if (!entry.dead) {
+                live.add(entry);
+            }
         }
+        passiveCache.clear();
+        passiveCache.addAll(live);
+        deadPassiveCount = 0;
     }
 
     /**
@@ -114,34 +327,103 @@ class CacheManager {
     }
 
     /**
-     * Add part if it doesn't exist, recycle bitmap otherwise
+     * Add part if it doesn't exist, release bitmap to the pool otherwise
+     *
+     * @return true if the part was added
      */
-    private void addWithoutDuplicates(Collection<PagePart> collection, PagePart newPart) {
+    private boolean addWithoutDuplicates(Collection<PagePart> collection, PagePart newPart) {
         for (PagePart part : collection) {
             if (part.equals(newPart)) {
-                newPart.getRenderedBitmap().recycle();
-                return;
+                bitmapPool.release(newPart.getRenderedBitmap());
+                return false;
             }
         }
         collection.add(newPart);
+        return true;
     }
 
-    @Nullable
-    private static PagePart find(PriorityQueue<PagePart> vector, PagePart fakePart) {
-        for (PagePart part : vector) {
-            if (part.equals(fakePart)) {
-                return part;
+    /**
+     * Fill the parts to draw for the given zoom, in drawing order: the thumbnails, then the parts of
+     * the levels far from the zoom so that the sharpest parts are drawn last. Only the pages between
+     * firstPage and lastPage are kept, and a part fully covered by parts rendered for the zoom
+     * itself is skipped.
+     */
+    public void getVisibleParts(float zoom, int firstPage, int lastPage, List<PagePart> out) {
+        out.clear();
+        synchronized (thumbnails) {
+            synchronized (passiveActiveLock) {
+                int level = getLevel(zoom);
+                if (drawVersion != version || drawLevel != level) {
+                    sortDrawEntries(level);
+                }
+                coveringParts.clear();
+                for (int i = 0; i < drawEntries.size(); i++) {
+                    CacheEntry entry = drawEntries.get(i);
+                    PagePart part = entry.part;
+                    if (entry.active && !entry.dead && part.getZoom() == zoom
+                            && part.getPage() >= firstPage && part.getPage() <= lastPage) {
+                        coveringParts.add(part);
+                    }
+                }
+                for (int i = 0; i < thumbnails.size(); i++) {
+                    PagePart thumbnail = thumbnails.get(i);
+                    if (thumbnail.getPage() >= firstPage && thumbnail.getPage() <= lastPage && !isCovered(thumbnail)) {
+                        out.add(thumbnail);
+                    }
+                }
+                for (int i = 0; i < drawEntries.size(); i++) {
+                    CacheEntry entry = drawEntries.get(i);
+                    PagePart part = entry.part;
+                    if (entry.dead || part.getPage() < firstPage || part.getPage() > lastPage) {
+                        continue;
+                    }
+                    if (part.getZoom() == zoom || !isCovered(part)) {
+                        out.add(part);
+                    }
+                }
             }
         }
-        return null;
     }
 
-    public List<PagePart> getPageParts() {
-        synchronized (passiveActiveLock) {
-            List<PagePart> parts = new ArrayList<>(passiveCache);
-            parts.addAll(activeCache);
-            return parts;
+    private void sortDrawEntries(int level) {
+        drawEntries.clear();
+        for (CacheEntry entry : passiveCache) {
+            if (!entry.dead) {
+                drawEntries.add(entry);
+            }
         }
+        for (CacheEntry entry : activeCache) {
+            if (!entry.dead) {
+                drawEntries.add(entry);
+            }
+        }
+        drawOrderComparator.level = level;
+        Collections.sort(drawEntries, drawOrderComparator);
+        drawVersion = version;
+        drawLevel = level;
+    }
+
+    /**
+     * A part is covered when the active parts rendered for the drawn zoom on its page fill its
+     * bounds, these parts come from the grid of the current set so they do not overlap
+     */
+    private boolean isCovered(PagePart part) {
+        RectF bounds = part.getPageRelativeBounds();
+        float area = bounds.width() * bounds.height();
+        float coveredArea = 0;
+        for (int i = 0; i < coveringParts.size(); i++) {
+            PagePart covering = coveringParts.get(i);
+            if (covering.getPage() != part.getPage()) {
+                continue;
+            }
+            RectF other = covering.getPageRelativeBounds();
+            float width = Math.min(bounds.right, other.right) - Math.max(bounds.left, other.left);
+            float height = Math.min(bounds.bottom, other.bottom) - Math.max(bounds.top, other.top);
+            if (width > 0 && height > 0) {
+                coveredArea += width * height;
+            }
+        }
+        return coveredArea >= area * COVERED_AREA_RATIO;
     }
 
     public List<PagePart> getThumbnails() {
@@ -152,14 +434,17 @@ class CacheManager {
 
     public void recycle() {
         synchronized (passiveActiveLock) {
-            for (PagePart part : passiveCache) {
-                part.getRenderedBitmap().recycle();
+            for (CacheEntry entry : index.values()) {
+                entry.part.getRenderedBitmap().recycle();
             }
+            index.clear();
             passiveCache.clear();
-            for (PagePart part : activeCache) {
-                part.getRenderedBitmap().recycle();
-            }
             activeCache.clear();
+            deadPassiveCount = 0;
+            currentBytes = 0;
+            drawEntries.clear();
+            coveringParts.clear();
+            version++;
         }
         synchronized (thumbnails) {
             for (PagePart part : thumbnails) {
@@ -169,17 +454,166 @@ class CacheManager {
         }
     }
 
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getCurrentBytes() {
+        synchronized (passiveActiveLock) {
+            return currentBytes;
+        }
+    }
+
+    public long getPeakBytes() {
+        synchronized (passiveActiveLock) {
+            return peakBytes;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (passiveActiveLock) {
+            return evictionCount;
+        }
+    }
+
+    private static long getByteCount(PagePart part) {
+        Bitmap bitmap = part.getRenderedBitmap();
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Byte budget for the rendered parts, a fraction of the app heap limit. The memory class is
+     * preferred to {@link Runtime#maxMemory()} so that a large heap does not inflate the cache on
+     * low RAM devices.
+     */
+    static long getDefaultMaxBytes(Context context) {
+        long heapBytes = Runtime.getRuntime().maxMemory();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            heapBytes = Math.min(heapBytes, activityManager.getMemoryClass() * 1024L * 1024L);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice()) {
+                heapBytes /= 2;
+            }
+        }
+        return heapBytes / CACHE_MEMORY_RATIO;
+    }
+
     public BitmapMemoryCacheHelper getBitmapMemoryCacheHelper() {
         return bitmapMemoryCacheHelper;
     }
 
-    class PagePartComparator implements Comparator<PagePart> {
+    class CacheEntryComparator implements Comparator<CacheEntry> {
         @Override
-        public int compare(PagePart part1, PagePart part2) {
-            if (part1.getCacheOrder() == part2.getCacheOrder()) {
+        public int compare(CacheEntry entry1, CacheEntry entry2) {
+            if (entry1.order == entry2.order) {
                 return 0;
             }
-            return part1.getCacheOrder() > part2.getCacheOrder() ? 1 : -1;
+            return entry1.order > entry2.order ? 1 : -1;
+        }
+    }
+
+    /**
+     * Passive parts of the levels farthest from the current one first, then by order
+     */
+    class LevelComparator implements Comparator<CacheEntry> {
+        @Override
+        public int compare(CacheEntry entry1, CacheEntry entry2) {
+            int distance1 = Math.abs(entry1.level - currentLevel);
+            int distance2 = Math.abs(entry2.level - currentLevel);
+            if (distance1 != distance2) {
+                return distance1 > distance2 ? -1 : 1;
+            }
+            return orderComparator.compare(entry1, entry2);
+        }
+    }
+
+    /**
+     * Levels far from the drawn zoom first, coarser before sharper at equal distance. The sort is
+     * stable, so passive parts stay below the active ones of the same level.
+     */
+    private static class DrawOrderComparator implements Comparator<CacheEntry> {
+        int level;
+
+        @Override
+        public int compare(CacheEntry entry1, CacheEntry entry2) {
+            int distance1 = Math.abs(entry1.level - level);
+            int distance2 = Math.abs(entry2.level - level);
+            if (distance1 != distance2) {
+                return distance1 > distance2 ? -1 : 1;
+            }
+            return entry1.level < entry2.level ? -1 : (entry1.level == entry2.level ? 0 : 1);
+        }
+    }
+
+    /**
+     * Node of the eviction queues, the order and level are fixed so that queue invariants hold
+     */
+    private static class CacheEntry {
+        final PartKey key;
+        final PagePart part;
+        final int order;
+        final int level;
+        boolean active = true;
+        boolean dead = false;
+
+        CacheEntry(PartKey key, PagePart part, int order) {
+            this.key = key;
+            this.part = part;
+            this.order = order;
+            this.level = getLevel(part.getZoom());
+        }
+    }
+
+    /**
+     * Page, bounds and render size of a part, the bounds quantized so that float noise does not
+     * split equal parts. The part size changes with the zoom, so the same bounds may be rendered
+     * at several resolutions, the zoom itself is not part of the key.
+     */
+    private static class PartKey {
+        private static final float QUANTUM = 65536;
+
+        int page;
+        int left, top, right, bottom;
+        int width, height;
+
+        PartKey() {
+        }
+
+        PartKey(int page, RectF bounds, int width, int height) {
+            set(page, bounds, width, height);
+        }
+
+        void set(int page, RectF bounds, int width, int height) {
+            this.page = page;
+            this.left = Math.round(bounds.left * QUANTUM);
+            this.top = Math.round(bounds.top * QUANTUM);
+            this.right = Math.round(bounds.right * QUANTUM);
+            this.bottom = Math.round(bounds.bottom * QUANTUM);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PartKey)) {
+                return false;
+            }
+            PartKey key = (PartKey) obj;
+            return key.page == page && key.left == left && key.top == top
+                    && key.right == right && key.bottom == bottom
+                    && key.width == width && key.height == height;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = page;
+            result = 31 * result + left;
+            result = 31 * result + top;
+            result = 31 * result + right;
+            result = 31 * result + bottom;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            return result;
         }
     }
 
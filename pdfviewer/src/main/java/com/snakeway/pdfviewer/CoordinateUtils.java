@@ -26,8 +26,6 @@ public class CoordinateUtils {
         float xOffset = pdfView.getCurrentXOffset() / zoom;
         //view原点相对于display原点的y位置,基于display坐标
         float yOffset = pdfView.getCurrentYOffset() / zoom;
-        //pdf页码每页间距
-        int spacingPx = pdfView.getSpacingPx();
         //在display坐标系中,以view原点为原点,点击的点的x的坐标
         float x = viewX / zoom;
         //在display坐标系中,以view原点为原点,点击的点的y的坐标
@@ -36,30 +34,16 @@ public class CoordinateUtils {
         x = xOffset - x;
         y = yOffset - y;
 
-        int findPage = 0;
-        boolean finded = false;
-        //顺序查找当前位置所属页面，每次查找如果没有中AOD x | y 平移一页
-        while (findPage < pdfView.getPageCount()) {
+        //二分查找当前位置所属页面,页面起止位置为预先计算的前缀和
+        int findPage = pdfView.pdfFile.getPageAtStripPosition(pdfView.isSwipeVertical() ? -1 * y : -1 * x);
+        if (findPage >= 0) {
             if (pdfView.isSwipeVertical()) {
-                float pageHeight = getDisplayPageHeight(pdfView, findPage);
-                if (-1 * y < pageHeight + spacingPx / 2) {
-                    finded = true;
-                    break;
-                }
-                y += pageHeight;
-                y += spacingPx;
+                y += pdfView.pdfFile.getStripPageStart(findPage);
             } else {
-                float pageWidth = getDisplayPageWidth(pdfView, findPage);
-                if (-1 * x < pageWidth + spacingPx / 2) {
-                    finded = true;
-                    break;
-                }
-                x += pageWidth;
-                x += spacingPx;
+                x += pdfView.pdfFile.getStripPageStart(findPage);
             }
-            findPage++;
         }
-        if (!finded) {
+        if (findPage < 0) {
             // throw new RuntimeException("get pdf coordinate error");
             Log.e("getPdfCoordinate", "get pdf coordinate error");
             return null;
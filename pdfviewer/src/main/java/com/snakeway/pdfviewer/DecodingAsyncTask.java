@@ -1,16 +1,20 @@
 package com.snakeway.pdfviewer;
 
 import android.os.AsyncTask;
+import android.util.Log;
 
 import com.snakeway.pdflibrary.PdfDocument;
 import com.snakeway.pdflibrary.PdfiumCore;
 import com.snakeway.pdflibrary.util.Size;
 import com.snakeway.pdfviewer.source.DocumentSource;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 
 class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
 
+    private static final String TAG = DecodingAsyncTask.class.getName();
+
     private boolean cancelled;
 
     private WeakReference<PDFView> pdfViewReference;
@@ -38,7 +42,15 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
                 PdfDocument pdfDocument = docSource.createDocument(pdfView.getContext(), pdfiumCore, password);
                 pdfFile = new PdfFile(pdfiumCore, pdfDocument, pdfView.getPageFitPolicy(), getViewSize(pdfView),
                         userPages, pdfView.isSwipeVertical(), pdfView.getSpacingPx(), pdfView.isAutoSpacingEnabled(),
-                        pdfView.isFitEachPage());
+                        pdfView.isFitEachPage(), pdfView.getDefaultPage());
+                // Without a fingerprint nothing of a protected document is written to disk
+                if (password == null && (pdfView.isDiskCacheEnabled() || pdfView.isTextIndexEnabled())) {
+                    try {
+                        pdfFile.setFingerprint(pdfiumCore.getDocumentFingerprint(pdfDocument));
+                    } catch (IOException e) {
+                        Log.e(TAG, "Cannot compute document fingerprint", e);
+                    }
+                }
                 return null;
             } else {
                 return new NullPointerException("pdfView == null");
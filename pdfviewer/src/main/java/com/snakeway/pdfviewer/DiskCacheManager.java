@@ -0,0 +1,352 @@
+package com.snakeway.pdfviewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.snakeway.pdfviewer.util.Constants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk tier behind {@link CacheManager}, keeps rendered parts across sessions so a reopened
+ * document paints without rendering.
+ * <p>
+ * Entries are keyed by the document fingerprint, the page, the part bounds, the render size,
+ * the quality and the annotation rendering, and store the raw pixels of the bitmap so they can be
+ * copied back into a pooled bitmap without decoding. Reads happen on the rendering threads,
+ * writes on a dedicated thread, and the least recently used entries are deleted beyond the size limit.
+ * <p>
+ * The cache directory is shared by the whole process, so there is one instance whose index and size
+ * limit cover all the views, see {@link #acquire(Context)}.
+ */
+class DiskCacheManager {
+
+    private static final String TAG = DiskCacheManager.class.getName();
+
+    private static final String DIRECTORY_NAME = "pdfviewer_parts";
+
+    private static final int MAGIC = 0x50445650;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final float QUANTUM = 65536;
+
+    /**
+     * Writes waiting for the disk thread, beyond that new parts are not written
+     */
+    private static final int MAX_PENDING_WRITES = 8;
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    /**
+     * Entry file names and sizes in access order
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long currentBytes = 0;
+
+    private boolean indexLoaded = false;
+
+    private int pendingWrites = 0;
+
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+    /**
+     * Read buffer of each rendering thread
+     */
+    private final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<>();
+
+    private final HandlerThread diskThread = new HandlerThread("PDF disk cache");
+
+    private final Handler diskHandler;
+
+    /**
+     * Instance shared by the views of the process, guarded by the class lock
+     */
+    private static DiskCacheManager instance;
+
+    /**
+     * Views using {@link #instance}, guarded by the class lock
+     */
+    private int referenceCount = 0;
+
+    /**
+     * Get the disk cache of the process, created on first use. Each call must be balanced by a call
+     * to {@link #release()}.
+     */
+    static DiskCacheManager acquire(Context context) {
+        synchronized (DiskCacheManager.class) {
+            if (instance == null) {
+                instance = new DiskCacheManager(context.getApplicationContext(), Constants.Cache.DISK_CACHE_SIZE);
+            }
+            instance.referenceCount++;
+            return instance;
+        }
+    }
+
+    private DiskCacheManager(Context context, long maxBytes) {
+        this.directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        this.maxBytes = maxBytes;
+        diskThread.start();
+        diskHandler = new Handler(diskThread.getLooper());
+        diskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+            }
+        });
+    }
+
+    static String getKey(String fingerprint, int documentPage, RectF bounds, int width, int height,
+                         boolean bestQuality, boolean annotationRendering) {
+        return fingerprint + "_" + documentPage
+                + "_" + Math.round(bounds.left * QUANTUM) + "_" + Math.round(bounds.top * QUANTUM)
+                + "_" + Math.round(bounds.right * QUANTUM) + "_" + Math.round(bounds.bottom * QUANTUM)
+                + "_" + width + "x" + height
+                + (bestQuality ? "_q" : "_l") + (annotationRendering ? "a" : "");
+    }
+
+    /**
+     * Fill the bitmap with the cached pixels of the key, called on a rendering thread
+     *
+     * @return true if the bitmap was filled
+     */
+    boolean read(String key, Bitmap bitmap) {
+        synchronized (entries) {
+            if (!indexLoaded || entries.get(key) == null) {
+                return false;
+            }
+        }
+        File file = new File(directory, key);
+        int pixelBytes = bitmap.getRowBytes() * bitmap.getHeight();
+        ByteBuffer buffer = readBuffers.get();
+        if (buffer == null || buffer.capacity() < HEADER_SIZE + pixelBytes) {
+            buffer = ByteBuffer.allocate(HEADER_SIZE + pixelBytes);
+            readBuffers.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(HEADER_SIZE + pixelBytes);
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            while (buffer.hasRemaining()) {
+                if (stream.getChannel().read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.remaining() != HEADER_SIZE + pixelBytes || buffer.getInt() != MAGIC
+                    || buffer.getInt() != bitmap.getWidth() || buffer.getInt() != bitmap.getHeight()) {
+                remove(key);
+                return false;
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+            final File touched = file;
+            diskHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    touched.setLastModified(System.currentTimeMillis());
+                }
+            });
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot read cached part " + key, e);
+            remove(key);
+            return false;
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Write the pixels of a rendered part in the background. The pixels are copied before
+     * returning so the bitmap can be reused right away.
+     */
+    void write(final String key, Bitmap bitmap) {
+        final ByteBuffer buffer;
+        int pixelBytes = bitmap.getRowBytes() * bitmap.getHeight();
+        synchronized (entries) {
+            if (!indexLoaded || pendingWrites >= MAX_PENDING_WRITES || entries.containsKey(key)) {
+                return;
+            }
+            pendingWrites++;
+            ByteBuffer free = freeBuffers.poll();
+            buffer = free != null && free.capacity() >= HEADER_SIZE + pixelBytes
+                    ? free : ByteBuffer.allocate(HEADER_SIZE + pixelBytes);
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC).putInt(bitmap.getWidth()).putInt(bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        diskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(key, buffer);
+                synchronized (entries) {
+                    pendingWrites--;
+                    if (freeBuffers.size() < MAX_PENDING_WRITES) {
+                        freeBuffers.offer(buffer);
+                    }
+                }
+            }
+        });
+    }
+
+    private void writeFile(String key, ByteBuffer buffer) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File tmp = new File(directory, key + ".tmp");
+        FileOutputStream stream = null;
+        long size = buffer.remaining();
+        try {
+            stream = new FileOutputStream(tmp);
+            while (buffer.hasRemaining()) {
+                stream.getChannel().write(buffer);
+            }
+            stream.close();
+            stream = null;
+            if (!tmp.renameTo(new File(directory, key))) {
+                tmp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write cached part " + key, e);
+            closeQuietly(stream);
+            tmp.delete();
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, size);
+            currentBytes += size;
+        }
+        trimToSize();
+    }
+
+    /**
+     * Build the LRU index from the files left by previous sessions, oldest first
+     */
+    private void loadIndex() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File file1, File file2) {
+                    long modified1 = file1.lastModified();
+                    long modified2 = file2.lastModified();
+                    return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+                }
+            });
+        }
+        synchronized (entries) {
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".tmp")) {
+                        file.delete();
+                        continue;
+                    }
+                    entries.put(file.getName(), file.length());
+                    currentBytes += file.length();
+                }
+            }
+            indexLoaded = true;
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        while (true) {
+            String key;
+            synchronized (entries) {
+                if (currentBytes <= maxBytes || entries.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+                Map.Entry<String, Long> eldest = iterator.next();
+                key = eldest.getKey();
+                currentBytes -= eldest.getValue();
+                iterator.remove();
+            }
+            new File(directory, key).delete();
+        }
+    }
+
+    private void remove(final String key) {
+        synchronized (entries) {
+            Long size = entries.remove(key);
+            if (size == null) {
+                return;
+            }
+            currentBytes -= size;
+        }
+        diskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                new File(directory, key).delete();
+            }
+        });
+    }
+
+    long getCurrentBytes() {
+        synchronized (entries) {
+            return currentBytes;
+        }
+    }
+
+    /**
+     * Give back an instance got from {@link #acquire(Context)}, the disk thread stops after its
+     * pending writes when no view uses the cache anymore
+     */
+    void release() {
+        synchronized (DiskCacheManager.class) {
+            if (--referenceCount > 0) {
+                return;
+            }
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            diskThread.quitSafely();
+        } else {
+            diskThread.quit();
+        }
+    }
+
+    private static void closeQuietly(FileInputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void closeQuietly(FileOutputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
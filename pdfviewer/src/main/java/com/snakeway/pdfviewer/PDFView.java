@@ -15,7 +15,9 @@
  */
 package com.snakeway.pdfviewer;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -85,6 +87,7 @@ import com.snakeway.pdfviewer.listener.OnPageErrorListener;
 import com.snakeway.pdfviewer.listener.OnPageScrollListener;
 import com.snakeway.pdfviewer.listener.OnRenderListener;
 import com.snakeway.pdfviewer.listener.OnSearchTextListener;
+import com.snakeway.pdfviewer.listener.OnSearchTextResultsListener;
 import com.snakeway.pdfviewer.listener.OnTapListener;
 import com.snakeway.pdfviewer.listener.OnTextRemarkListener;
 import com.snakeway.pdfviewer.model.PagePart;
@@ -100,6 +103,7 @@ import com.snakeway.pdfviewer.source.FileSource;
 import com.snakeway.pdfviewer.source.InputStreamSource;
 import com.snakeway.pdfviewer.source.UriSource;
 import com.snakeway.pdfviewer.util.Base64Util;
+import com.snakeway.pdfviewer.util.BitmapPool;
 import com.snakeway.pdfviewer.util.BitmapUtil;
 import com.snakeway.pdfviewer.util.Constants;
 import com.snakeway.pdfviewer.util.EditTextUtil;
@@ -150,6 +154,27 @@ public class PDFView extends RelativeLayout {
 
     public static final int TOUCH_SLOP = 12;
 
+    /**
+     * Search flag, upper and lower case letters match each other
+     */
+    public static final int SEARCH_IGNORE_CASE = TextMatcher.IGNORE_CASE;
+
+    /**
+     * Search flag, letters match whatever their accents, as e and é
+     */
+    public static final int SEARCH_IGNORE_DIACRITICS = TextMatcher.IGNORE_DIACRITICS;
+
+    /**
+     * Search flag, the text is a {@link java.util.regex.Pattern} run over the page text,
+     * where line breaks read as '\n'
+     */
+    public static final int SEARCH_REGEX = TextMatcher.REGEX;
+
+    /**
+     * Search flag, a match must not be preceded or followed by a letter or a digit
+     */
+    public static final int SEARCH_WHOLE_WORD = TextMatcher.WHOLE_WORD;
+
     private float minZoom = DEFAULT_MIN_SCALE;
     private float midZoom = DEFAULT_MID_SCALE;
     private float maxZoom = DEFAULT_MAX_SCALE;
@@ -178,6 +203,44 @@ public class PDFView extends RelativeLayout {
      */
     CacheManager cacheManager;
 
+    /**
+     * Bitmaps released by the cache, reused by the rendering threads
+     */
+    final BitmapPool bitmapPool = new BitmapPool(16);
+
+    /**
+     * Rendered parts kept across sessions, null when disabled or the document has no fingerprint
+     */
+    DiskCacheManager diskCacheManager;
+
+    private boolean diskCacheEnabled = false;
+
+    /**
+     * Move rendered parts to graphics memory when the view is hardware accelerated
+     */
+    private boolean hardwareBitmapsEnabled = true;
+
+    /**
+     * Shrinks the cache when the system runs low on memory
+     */
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (cacheManager != null) {
+                cacheManager.onTrimMemory(level);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     /**
      * Animation manager manage all offset and zoom animation
      */
@@ -235,16 +298,35 @@ public class PDFView extends RelativeLayout {
      */
     private DecodingAsyncTask decodingAsyncTask;
 
+    private PageSizeLoadingTask pageSizeLoadingTask;
+
     private SearchTextAsyncTask searchTextAsyncTask;
 
     /**
-     * The thread {@link #renderingHandler} will run on
+     * Matches of the last {@link #searchAllText}, ordered by page then position in the page
+     */
+    private final List<SearchTextInfo> searchResults = new ArrayList<>();
+
+    private int searchResultIndex = -1;
+
+    /**
+     * Text and trigram index of the document for search, null when disabled
      */
-    private HandlerThread renderingHandlerThread;
+    TextIndex textIndex;
+
+    private TextIndexBuildTask textIndexBuildTask;
+
+    private boolean textIndexEnabled = false;
+
+    /**
+     * Worker threads always waiting in the background and rendering tasks
+     */
+    RenderingPool renderingPool;
+
     /**
-     * Handler always waiting in the background and rendering tasks
+     * Number of rendering worker threads
      */
-    RenderingHandler renderingHandler;
+    private int renderingThreadCount = RenderingPool.getDefaultSize();
 
     private HandlerThread whiteSpaceInfoHandlerThread;
 
@@ -356,6 +438,22 @@ public class PDFView extends RelativeLayout {
      */
     public final List<Integer> onDrawPagesNums = new ArrayList<>(10);
 
+    /**
+     * Reused by every frame so drawing the parts does not allocate
+     */
+    private final List<PagePart> visibleParts = new ArrayList<>();
+
+    private final Rect drawSrcRect = new Rect();
+
+    private final RectF drawDstRect = new RectF();
+
+    /**
+     * Total time spent drawing the parts and count of frames drawn, in nanoseconds
+     */
+    private long drawTimeTotal = 0;
+
+    private int drawCount = 0;
+
 
     /**
      * Holds info whether view has been added to layout and has width and height
@@ -517,7 +615,7 @@ public class PDFView extends RelativeLayout {
     public PDFView(Context context, AttributeSet set) {
         super(context, set);
 
-        renderingHandlerThread = new HandlerThread("PDF renderer");
+        renderingPool = new RenderingPool(renderingThreadCount);
         whiteSpaceInfoHandlerThread = new HandlerThread("White space calculation");
         renderingCustomHandlerThread = new HandlerThread("Custom rendering");
         if (isInEditMode()) {
@@ -529,7 +627,7 @@ public class PDFView extends RelativeLayout {
 
         initTextRemarkView();
         initProgressBar();
-        cacheManager = new CacheManager();
+        cacheManager = new CacheManager(bitmapPool, CacheManager.getDefaultMaxBytes(context));
         animationManager = new AnimationManager(this);
         dragPinchManager = new DragPinchManager(this, animationManager);
         annotationManager = new AnnotationManager(this);
@@ -985,17 +1083,8 @@ public class PDFView extends RelativeLayout {
         dragPinchManager.disable();
 
         // Stop tasks
-        if (renderingHandler != null) {
-            renderingHandler.stop();
-            renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
-            while (renderingHandler.getRequestCount() != 0) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            renderingHandler = null;
+        if (renderingPool != null && renderingPool.isStarted()) {
+            renderingPool.stop();
         }
         if (renderingCustomHandler != null) {
             renderingCustomHandler.stop();
@@ -1027,9 +1116,25 @@ public class PDFView extends RelativeLayout {
         if (decodingAsyncTask != null) {
             decodingAsyncTask.cancel(true);
         }
+        if (pageSizeLoadingTask != null) {
+            pageSizeLoadingTask.cancel(false);
+            pageSizeLoadingTask = null;
+        }
+        if (textIndexBuildTask != null) {
+            textIndexBuildTask.cancel(false);
+            textIndexBuildTask = null;
+        }
+        if (searchTextAsyncTask != null) {
+            searchTextAsyncTask.cancel(true);
+            searchTextAsyncTask = null;
+        }
+        searchResults.clear();
+        searchResultIndex = -1;
+        textIndex = null;
 
         // Clear caches
         cacheManager.recycle();
+        bitmapPool.clear();
 
         if (scrollHandle != null && isScrollHandleInit) {
             scrollHandle.destroyLayout();
@@ -1065,18 +1170,29 @@ public class PDFView extends RelativeLayout {
         animationManager.computeFling();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (!isInEditMode()) {
+            getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+        }
+    }
+
     @Override
     protected void onDetachedFromWindow() {
+        if (!isInEditMode()) {
+            getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        }
         recycle();
         handler.removeCallbacksAndMessages(null);
         autoFillWhiteSpaceHandler.removeCallbacksAndMessages(null);
-        if (renderingHandlerThread != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                renderingHandlerThread.quitSafely();
-            } else {
-                renderingHandlerThread.quit();
-            }
-            renderingHandlerThread = null;
+        if (renderingPool != null) {
+            renderingPool.quit();
+            renderingPool = null;
+        }
+        if (diskCacheManager != null) {
+            diskCacheManager.release();
+            diskCacheManager = null;
         }
         if (whiteSpaceInfoHandlerThread != null) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
@@ -1100,6 +1216,17 @@ public class PDFView extends RelativeLayout {
         super.onDetachedFromWindow();
     }
 
+    @Override
+    public void setLayerType(int layerType, Paint paint) {
+        boolean hardwareBitmaps = useHardwareBitmaps();
+        super.setLayerType(layerType, paint);
+        if (hardwareBitmaps && !useHardwareBitmaps() && cacheManager != null) {
+            // Parts in graphics memory cannot be drawn on a software layer, render them again
+            cacheManager.recycle();
+            loadPages();
+        }
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         hasSize = true;
@@ -1241,14 +1368,21 @@ public class PDFView extends RelativeLayout {
         float currentYOffset = this.currentYOffset;
         canvas.translate(currentXOffset, currentYOffset);
 
-        // Draws thumbnails
-        for (PagePart part : cacheManager.getThumbnails()) {
-            drawPart(canvas, part);
-        }
-        // Draws parts
-        for (PagePart part : cacheManager.getPageParts()) {
+        long drawStartTime = System.nanoTime();
+        // Draws thumbnails then parts, only on the visible pages
+        int firstVisiblePage = 0;
+        int lastVisiblePage = -1;
+        if (pdfFile != null) {
+            float offset = swipeVertical ? currentYOffset : currentXOffset;
+            float length = swipeVertical ? getHeight() : getWidth();
+            firstVisiblePage = pdfFile.getPageAtOffset(-offset, zoom);
+            lastVisiblePage = pdfFile.getPageAtOffset(-offset + length, zoom);
+        }
+        cacheManager.getVisibleParts(zoom, firstVisiblePage, lastVisiblePage, visibleParts);
+        for (int i = 0; i < visibleParts.size(); i++) {
+            PagePart part = visibleParts.get(i);
             drawPart(canvas, part);
-            if (callbacks.getOnDrawAll() != null
+            if (!part.isThumbnail() && callbacks.getOnDrawAll() != null
                     && !onDrawPagesNums.contains(part.getPage())) {
                 onDrawPagesNums.add(part.getPage());
             }
@@ -1257,6 +1391,9 @@ public class PDFView extends RelativeLayout {
 //            }
         }
 
+        drawTimeTotal += System.nanoTime() - drawStartTime;
+        drawCount++;
+
         zoomTextRemarkTextSize();
 //        annotationDrawManager.recycle(onDrawAnnotationPagesNums);
 //        for (Integer page : onDrawAnnotationPagesNums) {
@@ -1264,8 +1401,8 @@ public class PDFView extends RelativeLayout {
 //        }
 //        onDrawAnnotationPagesNums.clear();
 
-        for (Integer page : onDrawPagesNums) {
-            drawWithListener(canvas, page, callbacks.getOnDrawAll());
+        for (int i = 0; i < onDrawPagesNums.size(); i++) {
+            drawWithListener(canvas, onDrawPagesNums.get(i), callbacks.getOnDrawAll());
         }
         onDrawPagesNums.clear();
 
@@ -1812,7 +1949,7 @@ public class PDFView extends RelativeLayout {
         }
         canvas.translate(localTranslationX, localTranslationY);
 
-        Rect srcRect = new Rect(0, 0, renderedBitmap.getWidth(),
+        drawSrcRect.set(0, 0, renderedBitmap.getWidth(),
                 renderedBitmap.getHeight());
 
         float offsetX = toCurrentScale(pageRelativeBounds.left * size.getWidth());
@@ -1823,7 +1960,8 @@ public class PDFView extends RelativeLayout {
         // If we use float values for this rectangle, there will be
         // a possible gap between page parts, especially when
         // the zoom level is high.
-        RectF dstRect = new RectF((int) offsetX, (int) offsetY,
+        RectF dstRect = drawDstRect;
+        dstRect.set((int) offsetX, (int) offsetY,
                 (int) (offsetX + width),
                 (int) (offsetY + height));
 
@@ -1836,7 +1974,13 @@ public class PDFView extends RelativeLayout {
             return;
         }
 
-        canvas.drawBitmap(renderedBitmap, srcRect, dstRect, paint);
+        // A software canvas, as when the view is drawn into a bitmap, cannot read graphics memory.
+        // Parts are only uploaded while the view draws on hardware, so this part is skipped
+        // instead of being copied back on every frame
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || renderedBitmap.getConfig() != Bitmap.Config.HARDWARE
+                || canvas.isHardwareAccelerated()) {
+            canvas.drawBitmap(renderedBitmap, drawSrcRect, dstRect, paint);
+        }
 
         if (Constants.DEBUG_MODE) {
             debugPaint.setColor(part.getPage() % 2 == 0 ? Color.RED : Color.BLUE);
@@ -1854,18 +1998,35 @@ public class PDFView extends RelativeLayout {
      * the current page displayed
      */
     public void loadPages() {
-        if (recycled || renderingHandler == null || pdfFile == null) {
+        if (recycled || renderingPool == null || !renderingPool.isStarted() || pdfFile == null) {
             return;
         }
 
         // Cancel all current tasks
-        renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+        renderingPool.removeRenderingTasks();
+        renderingPool.updateViewport(currentXOffset, currentYOffset, getWidth(), getHeight(), zoom);
+        cacheManager.setCurrentZoom(zoom);
         cacheManager.makeANewSet();
 
         pagesLoader.loadPages();
         redraw();
     }
 
+    /**
+     * Prefetch the parts of the view at the offsets where the running fling ends
+     */
+    void prefetchTo(float xOffset, float yOffset) {
+        if (renderingPool != null) {
+            renderingPool.setPrefetchTarget(xOffset, yOffset);
+        }
+    }
+
+    void cancelPrefetch() {
+        if (renderingPool != null) {
+            renderingPool.cancelPrefetch();
+        }
+    }
+
     public void addRenderingCustomTask(RenderingCustomHandler.RenderingCustomTask renderingCustomTask) {
         if (!supportCustomRendering || renderingCustomHandler == null || renderingCustomTask == null) {
             return;
@@ -1874,17 +2035,62 @@ public class PDFView extends RelativeLayout {
     }
 
 
+    /**
+     * Called when the real size of pages which were estimated is known. Corrects the layout
+     * while keeping the current page at the same place on screen.
+     */
+    void onPageSizesLoaded(PdfFile loadedPdfFile, int fromPage, List<Size> sizes) {
+        if (recycled || pdfFile == null || pdfFile != loadedPdfFile) {
+            return;
+        }
+        int page = getCurrentPage();
+        float pageOffset = pdfFile.getPageOffset(page, zoom);
+        float pageLength = pdfFile.getPageLength(page, zoom);
+        float positionInPage = -(swipeVertical ? currentYOffset : currentXOffset) - pageOffset;
+
+        pdfFile.applyPageSizes(fromPage, sizes);
+
+        float newPageOffset = pdfFile.getPageOffset(page, zoom);
+        float newPageLength = pdfFile.getPageLength(page, zoom);
+        if (newPageOffset == pageOffset && newPageLength == pageLength) {
+            // Only pages after the current one changed, the view stays anchored
+            loadPages();
+            return;
+        }
+        if (pageLength > 0) {
+            positionInPage *= newPageLength / pageLength;
+        }
+        float offset = -(newPageOffset + positionInPage);
+        if (swipeVertical) {
+            moveTo(currentXOffset, offset);
+        } else {
+            moveTo(offset, currentYOffset);
+        }
+        loadPages();
+    }
+
     /**
      * Called when the PDF is loaded
      */
     void loadComplete(PdfFile pdfFile) {
-        if (recycled || pdfFile == null || renderingHandlerThread == null) {
+        if (recycled || pdfFile == null || renderingPool == null) {
             return;
         }
         state = State.LOADED;
 
         this.pdfFile = pdfFile;
 
+        if (pdfFile.hasEstimatedPageSizes()) {
+            pageSizeLoadingTask = new PageSizeLoadingTask(this, pdfFile);
+            pageSizeLoadingTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        if (textIndexEnabled) {
+            textIndex = new TextIndex(pdfFile.pdfiumCore.getPageCount(pdfFile.pdfDocument),
+                    cacheManager.getMaxBytes() / Constants.Cache.TEXT_INDEX_MEMORY_RATIO);
+            textIndexBuildTask = new TextIndexBuildTask(getContext(), pdfFile, textIndex);
+            textIndexBuildTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
         SizeF fristPageSize = pdfFile.getPageSize(0);
         pdfFontUnit = fristPageSize.getWidth() / 360F;
 
@@ -1964,14 +2170,17 @@ public class PDFView extends RelativeLayout {
     }
 
     void startRendering() {
-        if (recycled || pdfFile == null || renderingHandlerThread == null) {
+        if (recycled || pdfFile == null || renderingPool == null) {
             return;
         }
-        if (!renderingHandlerThread.isAlive()) {
-            renderingHandlerThread.start();
+        if (diskCacheEnabled && diskCacheManager == null && pdfFile.getFingerprint() != null) {
+            diskCacheManager = DiskCacheManager.acquire(getContext());
+        }
+        if (renderingPool.getSize() != renderingThreadCount) {
+            renderingPool.quit();
+            renderingPool = new RenderingPool(renderingThreadCount);
         }
-        renderingHandler = new RenderingHandler(renderingHandlerThread.getLooper(), this);
-        renderingHandler.start();
+        renderingPool.start(this);
 
         if (scrollHandle != null) {
             scrollHandle.setupLayout(this);
@@ -2149,6 +2358,9 @@ public class PDFView extends RelativeLayout {
 
         currentXOffset = offsetX;
         currentYOffset = offsetY;
+        if (renderingPool != null) {
+            renderingPool.updateViewport(currentXOffset, currentYOffset, getWidth(), getHeight(), zoom);
+        }
         float positionOffset = getPositionOffset();
 
         if (moveHandle && scrollHandle != null && !documentFitsView()) {
@@ -2638,6 +2850,10 @@ public class PDFView extends RelativeLayout {
         this.defaultPage = defaultPage;
     }
 
+    int getDefaultPage() {
+        return defaultPage;
+    }
+
     public void resetZoom() {
         zoomTo(defaultZoom);
     }
@@ -2799,6 +3015,67 @@ public class PDFView extends RelativeLayout {
         this.spacingPx = Util.getDP(getContext(), spacingDp);
     }
 
+    private void setRenderingThreadCount(int renderingThreadCount) {
+        this.renderingThreadCount = Math.max(1, renderingThreadCount);
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Bytes used by the rendered parts in memory
+     */
+    public long getCacheBytes() {
+        return cacheManager.getCurrentBytes();
+    }
+
+    public long getCachePeakBytes() {
+        return cacheManager.getPeakBytes();
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheManager.getMaxBytes();
+    }
+
+    public long getCacheEvictionCount() {
+        return cacheManager.getEvictionCount();
+    }
+
+    public int getRenderingThreadCount() {
+        return renderingThreadCount;
+    }
+
+    /**
+     * Number of rendering tasks dropped before rendering because they were outdated or off screen
+     */
+    public long getDroppedRenderingTaskCount() {
+        return renderingPool != null ? renderingPool.getDroppedTaskCount() : 0;
+    }
+
+    /**
+     * Average time spent rendering one tile of the page, in milliseconds, -1 if unknown.
+     * Helps finding the pages which are expensive to render.
+     */
+    public long getAverageTileRenderTime(int page) {
+        return renderingPool != null ? renderingPool.getAverageRenderTime(page) : -1;
+    }
+
+    /**
+     * Average time spent drawing the parts of a frame, in microseconds, -1 if no frame was drawn.
+     * Read it after scrolling a document to compare the drawing cost between devices or versions.
+     */
+    public long getAverageFrameDrawTime() {
+        return drawCount == 0 ? -1 : drawTimeTotal / drawCount / 1000;
+    }
+
+    /**
+     * Number of rendering tasks rendered by pdfium, parts read from the disk cache are not counted
+     */
+    public long getRenderedRenderingTaskCount() {
+        return renderingPool != null ? renderingPool.getRenderedTaskCount() : 0;
+    }
+
     private void setAutoSpacing(boolean autoSpacing) {
         this.autoSpacing = autoSpacing;
     }
@@ -2914,6 +3191,39 @@ public class PDFView extends RelativeLayout {
         this.writePenCheck = writePenCheck;
     }
 
+    public boolean isDiskCacheEnabled() {
+        return diskCacheEnabled;
+    }
+
+    private void setDiskCacheEnabled(boolean diskCacheEnabled) {
+        this.diskCacheEnabled = diskCacheEnabled;
+    }
+
+    public boolean isHardwareBitmapsEnabled() {
+        return hardwareBitmapsEnabled;
+    }
+
+    private void setHardwareBitmapsEnabled(boolean hardwareBitmapsEnabled) {
+        this.hardwareBitmapsEnabled = hardwareBitmapsEnabled;
+    }
+
+    /**
+     * Rendered parts can only be drawn as {@link Bitmap.Config#HARDWARE} bitmaps on a hardware canvas,
+     * a software layer draws the view on a software canvas
+     */
+    boolean useHardwareBitmaps() {
+        return hardwareBitmapsEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && isHardwareAccelerated()
+                && getLayerType() != LAYER_TYPE_SOFTWARE;
+    }
+
+    public boolean isTextIndexEnabled() {
+        return textIndexEnabled;
+    }
+
+    private void setTextIndexEnabled(boolean textIndexEnabled) {
+        this.textIndexEnabled = textIndexEnabled;
+    }
+
     public boolean isSupportCustomRendering() {
         return supportCustomRendering;
     }
@@ -3156,11 +3466,12 @@ public class PDFView extends RelativeLayout {
         if (recycled || pdfFile == null || pdfFile.pdfDocument == null) {
             return null;
         }
-        Long pagePtr = pdfFile.pdfDocument.getTextPagesPtr(getCurrentPage());
+        int page = getCurrentPage();
+        Long pagePtr = pdfFile.getTextPage(page);
         if (pagePtr == null) {
             return null;
         }
-        int result = pdfiumCore.searchTextUnicode(pagePtr, index);
+        int result = pdfiumCore.searchTextUnicode(pdfFile.pdfDocument, page, pagePtr, index);
         return UnicodeUtil.unicodeToString(UnicodeUtil.convertUnicode(result));
     }
 
@@ -3178,45 +3489,186 @@ public class PDFView extends RelativeLayout {
      * searchType==3 表示搜索所有页,优先返回本页
      */
     public void searchText(String text, int searchType, OnSearchTextListener onSearchTextListener) {
+        searchText(text, searchType, 0, onSearchTextListener);
+    }
+
+    /**
+     * @param flags {@link #SEARCH_IGNORE_CASE}, {@link #SEARCH_IGNORE_DIACRITICS}, {@link #SEARCH_REGEX}
+     *              and {@link #SEARCH_WHOLE_WORD}, or 0 for an exact search
+     * @throws java.util.regex.PatternSyntaxException with {@link #SEARCH_REGEX} if the text is not a valid expression
+     */
+    public void searchText(String text, int searchType, int flags, OnSearchTextListener onSearchTextListener) {
         if (recycled || pdfFile == null || pdfFile.pdfDocument == null) {
             return;
         }
+        TextMatcher matcher = text != null ? new TextMatcher(text, flags) : null;
+        if (searchTextAsyncTask != null) {
+            searchTextAsyncTask.cancel(true);
+        }
+        searchResults.clear();
+        searchResultIndex = -1;
+        searchTextAsyncTask = new SearchTextAsyncTask(pdfFile, textIndex, matcher, getSearchPageIndexs(searchType), onSearchTextListener, false);
+        searchTextAsyncTask.execute();
+    }
+
+    /**
+     * Search every match of the text. The matches are streamed page by page to the listener and
+     * kept in document order for {@link #nextSearchResult()} and {@link #previousSearchResult()},
+     * which start from the first match reported.
+     *
+     * @param searchType as {@link #searchText(String, int, OnSearchTextListener)}, decides which page is searched first
+     */
+    public void searchAllText(String text, int searchType, OnSearchTextResultsListener onSearchTextResultsListener) {
+        searchAllText(text, searchType, 0, onSearchTextResultsListener);
+    }
+
+    /**
+     * @param flags {@link #SEARCH_IGNORE_CASE}, {@link #SEARCH_IGNORE_DIACRITICS}, {@link #SEARCH_REGEX}
+     *              and {@link #SEARCH_WHOLE_WORD}, or 0 for an exact search
+     * @throws java.util.regex.PatternSyntaxException with {@link #SEARCH_REGEX} if the text is not a valid expression
+     */
+    public void searchAllText(String text, int searchType, int flags, final OnSearchTextResultsListener onSearchTextResultsListener) {
+        if (recycled || pdfFile == null || pdfFile.pdfDocument == null) {
+            return;
+        }
+        TextMatcher matcher = text != null ? new TextMatcher(text, flags) : null;
+        if (searchTextAsyncTask != null) {
+            searchTextAsyncTask.cancel(true);
+        }
+        searchResults.clear();
+        searchResultIndex = -1;
+        searchTextAsyncTask = new SearchTextAsyncTask(pdfFile, textIndex, matcher, getSearchPageIndexs(searchType), new OnSearchTextResultsListener() {
+            @Override
+            public void onPageResults(int page, List<SearchTextInfo> results) {
+                addSearchResults(page, results);
+                if (onSearchTextResultsListener != null) {
+                    onSearchTextResultsListener.onPageResults(page, results);
+                }
+            }
+
+            @Override
+            public void onComplete(int totalCount) {
+                if (onSearchTextResultsListener != null) {
+                    onSearchTextResultsListener.onComplete(totalCount);
+                }
+            }
+
+            @Override
+            public void onResult(SearchTextInfo searchTextInfo) {
+                if (searchTextInfo != null) {
+                    searchResultIndex = searchResults.indexOf(searchTextInfo);
+                }
+                if (onSearchTextResultsListener != null) {
+                    onSearchTextResultsListener.onResult(searchTextInfo);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (onSearchTextResultsListener != null) {
+                    onSearchTextResultsListener.onCancel();
+                }
+            }
+
+            @Override
+            public void onError(int page, Throwable error) {
+                if (onSearchTextResultsListener != null) {
+                    onSearchTextResultsListener.onError(page, error);
+                }
+            }
+        }, true);
+        searchTextAsyncTask.execute();
+    }
+
+    private List<Integer> getSearchPageIndexs(int searchType) {
         int pageSize = getPageCount();
         int currentPage = getCurrentPage();
         List<Integer> pageIndexs = new ArrayList<>();
-        List<Long> textPagesPtrs = new ArrayList<>();
 
-        if (pdfFile.pdfiumCore != null && pdfFile.pdfDocument.getNativeTextPagesPtrSize() != pageSize) {
-            pdfFile.pdfiumCore.openPage(pdfFile.pdfDocument, 0, pageSize - 1);
-        }
         if (searchType == 1) {
             pageIndexs.add(currentPage);
-            Long textPagesPtr = pdfFile.pdfDocument.getTextPagesPtr(currentPage);
-            if (textPagesPtr == null) {
-                return;
-            }
-            textPagesPtrs.add(textPagesPtr);
         } else if (searchType == 2 || searchType == 3) {
             for (int i = 0; i < pageSize; i++) {
-                int pageIndex = i;
-                Long textPagesPtr = pdfFile.pdfDocument.getTextPagesPtr(pageIndex);
-                if (textPagesPtr == null) {
-                    continue;
-                }
                 if (searchType == 3 && i == currentPage) {
-                    pageIndexs.add(0, pageIndex);
-                    textPagesPtrs.add(0, textPagesPtr);
+                    pageIndexs.add(0, i);
                 } else {
-                    pageIndexs.add(pageIndex);
-                    textPagesPtrs.add(textPagesPtr);
+                    pageIndexs.add(i);
                 }
             }
         }
-        if (searchTextAsyncTask != null) {
-            searchTextAsyncTask.cancel(true);
+        return pageIndexs;
+    }
+
+    /**
+     * Insert the matches of a page at their place in document order, whatever order the pages are searched in
+     */
+    private void addSearchResults(int page, List<SearchTextInfo> results) {
+        int low = 0;
+        int high = searchResults.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (searchResults.get(middle).getPage() <= page) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
         }
-        searchTextAsyncTask = new SearchTextAsyncTask(pdfiumCore, text, pageIndexs, textPagesPtrs, onSearchTextListener);
-        searchTextAsyncTask.execute();
+        searchResults.addAll(low, results);
+        if (searchResultIndex >= low) {
+            searchResultIndex += results.size();
+        }
+    }
+
+    public List<SearchTextInfo> getSearchResults() {
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    public int getSearchResultCount() {
+        return searchResults.size();
+    }
+
+    /**
+     * @return index of the match shown in {@link #getSearchResults()}, -1 if none
+     */
+    public int getSearchResultIndex() {
+        return searchResultIndex;
+    }
+
+    /**
+     * Jump to the next match collected by {@link #searchAllText} and draw it, wrapping around at the end
+     *
+     * @return the match shown, null if there is none
+     */
+    public SearchTextInfo nextSearchResult() {
+        return showSearchResult(searchResultIndex + 1);
+    }
+
+    /**
+     * Jump to the previous match collected by {@link #searchAllText} and draw it, wrapping around at the start
+     *
+     * @return the match shown, null if there is none
+     */
+    public SearchTextInfo previousSearchResult() {
+        return showSearchResult(searchResultIndex - 1);
+    }
+
+    /**
+     * Jump to a match collected by {@link #searchAllText} and draw it
+     *
+     * @return the match shown, null if there is none
+     */
+    public SearchTextInfo showSearchResult(int index) {
+        if (searchResults.isEmpty()) {
+            return null;
+        }
+        int size = searchResults.size();
+        searchResultIndex = ((index % size) + size) % size;
+        SearchTextInfo searchTextInfo = searchResults.get(searchResultIndex);
+        if (getCurrentPage() != searchTextInfo.getPage()) {
+            jumpTo(searchTextInfo.getPage());
+        }
+        drawSearchArea(searchTextInfo);
+        return searchTextInfo;
     }
 
     /**
@@ -3465,6 +3917,8 @@ public class PDFView extends RelativeLayout {
 
         private int spacing = 0;
 
+        private int renderingThreadCount = RenderingPool.getDefaultSize();
+
         private boolean autoSpacing = false;
 
         private boolean drawingPenOptimize = false;
@@ -3501,6 +3955,12 @@ public class PDFView extends RelativeLayout {
 
         private boolean supportCustomRendering = false;
 
+        private boolean diskCache = false;
+
+        private boolean hardwareBitmaps = true;
+
+        private boolean textIndex = false;
+
         private Bitmap cancelBitmap = null;
 
         private float cancelBitmapSize = 50;
@@ -3628,6 +4088,15 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * Number of background threads rendering page tiles, defaults to 2 on multi-core devices.
+         * Pdfium renders one tile at a time, the other threads read the disk cache and upload tiles
+         */
+        public Configurator renderingThreadCount(int renderingThreadCount) {
+            this.renderingThreadCount = renderingThreadCount;
+            return this;
+        }
+
         public Configurator autoSpacing(boolean autoSpacing) {
             this.autoSpacing = autoSpacing;
             return this;
@@ -3673,6 +4142,35 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * Keep rendered parts on disk so a reopened document paints without rendering. The pixels
+         * are stored unencrypted in the cache directory, so documents opened with a password are
+         * never cached (default false)
+         */
+        public Configurator diskCache(boolean diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        /**
+         * Upload each rendered part once to graphics memory on Android 8.0 and above, so drawing
+         * it costs no copy and its pixels leave the Java heap (default true)
+         */
+        public Configurator hardwareBitmaps(boolean hardwareBitmaps) {
+            this.hardwareBitmaps = hardwareBitmaps;
+            return this;
+        }
+
+        /**
+         * Index the text of the document in the background and keep the index on disk, so searches
+         * only read the pages which may match. Indexing reads every page once, the index of a
+         * document opened with a password is kept in memory only (default false)
+         */
+        public Configurator textIndex(boolean textIndex) {
+            this.textIndex = textIndex;
+            return this;
+        }
+
         public Configurator setSupportCustomRendering(boolean supportCustomRendering) {
             this.supportCustomRendering = supportCustomRendering;
             return this;
@@ -3799,6 +4297,7 @@ public class PDFView extends RelativeLayout {
             PDFView.this.setScrollHandle(scrollHandle);
             PDFView.this.enableAntialiasing(antialiasing);
             PDFView.this.setSpacing(spacing);
+            PDFView.this.setRenderingThreadCount(renderingThreadCount);
             PDFView.this.setAutoSpacing(autoSpacing);
             PDFView.this.setDrawingPenOptimize(drawingPenOptimize);
             PDFView.this.setPageFitPolicy(pageFitPolicy);
@@ -3808,6 +4307,9 @@ public class PDFView extends RelativeLayout {
             PDFView.this.setAutoFillWhiteSpace(autoFillWhiteSpace);
             PDFView.this.setWritePenCheck(writePenCheck);
             PDFView.this.setSupportCustomRendering(supportCustomRendering);
+            PDFView.this.setDiskCacheEnabled(diskCache);
+            PDFView.this.setHardwareBitmapsEnabled(hardwareBitmaps);
+            PDFView.this.setTextIndexEnabled(textIndex);
             PDFView.this.setLoadAfterCheckWhiteSpace(loadAfterCheckWhiteSpace);
             PDFView.this.setTouchWithoutSpace(touchWithoutSpace);
             PDFView.this.setUseMinWhiteSpaceZoom(useMinWhiteSpaceZoom);
@@ -0,0 +1,218 @@
+package com.snakeway.pdfviewer;
+
+/**
+ * Positions of the pages along the scroll axis, kept as prefix sums of the page lengths so the
+ * page at a position is found by binary search in logarithmic time. When the length of some pages
+ * changes, the sums are only updated from the first changed page, without allocation.
+ * <p>
+ * Lengths are unzoomed, as the page sizes of {@link PdfFile}.
+ */
+class PageLayout {
+
+    /**
+     * Fixed spacing between pages in pixels
+     */
+    private final int spacingPx;
+    /**
+     * Calculate spacing automatically so each page fits on it's own in the center of the view
+     */
+    private final boolean autoSpacing;
+    /**
+     * Length of each page along the scroll axis
+     */
+    private float[] pageLengths = new float[0];
+    /**
+     * Calculated offsets for pages
+     */
+    private float[] pageOffsets = new float[0];
+    /**
+     * Calculated auto spacing for pages
+     */
+    private float[] pageSpacing = new float[0];
+    /**
+     * End of each page in the unzoomed strip as seen by {@link CoordinateUtils#getPdfCoordinate(PDFView, float, float)},
+     * page length and display spacing included, plus half of the fixed spacing
+     */
+    private float[] coordinatePageEnds = new float[0];
+    /**
+     * Start of each page in the unzoomed strip as seen by {@link CoordinateUtils#getPdfCoordinate(PDFView, float, float)}
+     */
+    private float[] coordinatePageStarts = new float[0];
+    /**
+     * Calculated document length
+     */
+    private float documentLength = 0;
+    /**
+     * Length of the view along the scroll axis
+     */
+    private float viewLength;
+
+    PageLayout(int spacingPx, boolean autoSpacing) {
+        this.spacingPx = spacingPx;
+        this.autoSpacing = autoSpacing;
+    }
+
+    /**
+     * Lay the pages out again
+     *
+     * @param pageLengths length of each page along the scroll axis, kept by the layout
+     * @param viewLength  length of the view along the scroll axis, used for auto spacing
+     */
+    void layout(float[] pageLengths, float viewLength) {
+        int pageCount = pageLengths.length;
+        this.pageLengths = pageLengths;
+        this.viewLength = viewLength;
+        pageSpacing = new float[pageCount];
+        pageOffsets = new float[pageCount];
+        coordinatePageStarts = new float[pageCount];
+        coordinatePageEnds = new float[pageCount];
+        prepareAutoSpacing(0, pageCount);
+        preparePagesOffset(0);
+    }
+
+    /**
+     * Change the length of some pages, the pages before them keep their offsets
+     *
+     * @param lengths new lengths of the pages from fromPage
+     */
+    void update(int fromPage, float[] lengths) {
+        System.arraycopy(lengths, 0, pageLengths, fromPage, lengths.length);
+        prepareAutoSpacing(fromPage, fromPage + lengths.length);
+        preparePagesOffset(fromPage);
+    }
+
+    private void prepareAutoSpacing(int fromPage, int toPage) {
+        if (!autoSpacing) {
+            return;
+        }
+        int pageCount = pageLengths.length;
+        for (int i = fromPage; i < toPage; i++) {
+            float spacing = Math.max(0, viewLength - pageLengths[i]);
+            if (i < pageCount - 1) {
+                spacing += spacingPx;
+            }
+            pageSpacing[i] = spacing;
+        }
+    }
+
+    /**
+     * Offsets and prefix sums of the pages from fromPage, continued from the previous page.
+     * The document length is the end of the last page.
+     */
+    private void preparePagesOffset(int fromPage) {
+        int pageCount = pageLengths.length;
+        if (pageCount == 0) {
+            documentLength = 0;
+            return;
+        }
+        float offset = 0;
+        float start = 0;
+        if (fromPage > 0) {
+            int previous = fromPage - 1;
+            offset = pageOffsets[previous] + (autoSpacing ? pageLengths[previous] + pageSpacing[previous] / 2f
+                    : pageLengths[previous] + spacingPx);
+            start = coordinatePageStarts[previous] + (getStripLength(previous) + spacingPx);
+        }
+        for (int i = fromPage; i < pageCount; i++) {
+            float size = pageLengths[i];
+            if (autoSpacing) {
+                offset += pageSpacing[i] / 2f;
+                if (i == 0) {
+                    offset -= spacingPx / 2f;
+                } else if (i == pageCount - 1) {
+                    offset += spacingPx / 2f;
+                }
+                pageOffsets[i] = offset;
+                offset += size + pageSpacing[i] / 2f;
+            } else {
+                pageOffsets[i] = offset;
+                offset += size + spacingPx;
+            }
+
+            float length = getStripLength(i);
+            coordinatePageStarts[i] = start;
+            coordinatePageEnds[i] = start + length + spacingPx / 2;
+            start += length + spacingPx;
+        }
+        int last = pageCount - 1;
+        documentLength = coordinatePageStarts[last] + getStripLength(last) - (autoSpacing ? last * spacingPx : 0);
+    }
+
+    /**
+     * Length of a page in the strip, with its display spacing when it is automatic
+     */
+    private float getStripLength(int pageIndex) {
+        return autoSpacing ? pageLengths[pageIndex] + pageSpacing[pageIndex] : pageLengths[pageIndex];
+    }
+
+    int getPageCount() {
+        return pageLengths.length;
+    }
+
+    float getDocumentLength() {
+        return documentLength;
+    }
+
+    float getPageOffset(int pageIndex) {
+        return pageOffsets[pageIndex];
+    }
+
+    float getPageSpacing(int pageIndex) {
+        return autoSpacing ? pageSpacing[pageIndex] : spacingPx;
+    }
+
+    /**
+     * Find the page at a zoomed offset along the scroll axis
+     *
+     * @return the last page starting before the offset, half of its spacing included, or 0
+     */
+    int getPageAtOffset(float offset, float zoom) {
+        // Binary search of the first page starting at or after the offset, page starts are increasing
+        int low = 0;
+        int high = pageOffsets.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            float off = pageOffsets[middle] * zoom - getPageSpacing(middle) * zoom / 2f;
+            if (off >= offset) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        int currentPage = low - 1;
+        return currentPage >= 0 ? currentPage : 0;
+    }
+
+    /**
+     * Find the page at a position of the unzoomed strip, as {@link CoordinateUtils#getPdfCoordinate(PDFView, float, float)}
+     *
+     * @return the first page ending after the position, or -1 if the position is after the last page
+     */
+    int getPageAtStripPosition(float position) {
+        int low = 0;
+        int high = coordinatePageEnds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (position < coordinatePageEnds[middle]) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low < coordinatePageEnds.length ? low : -1;
+    }
+
+    /**
+     * Start of a page in the unzoomed strip, see {@link #getPageAtStripPosition(float)}
+     */
+    float getStripPageStart(int pageIndex) {
+        return coordinatePageStarts[pageIndex];
+    }
+
+    /**
+     * End of a page in the unzoomed strip, see {@link #getPageAtStripPosition(float)}
+     */
+    float getStripPageEnd(int pageIndex) {
+        return coordinatePageEnds[pageIndex];
+    }
+}
@@ -0,0 +1,73 @@
+package com.snakeway.pdfviewer;
+
+import android.os.AsyncTask;
+
+import com.snakeway.pdflibrary.util.Size;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+/**
+ * Reads the real size of the pages which were only estimated when the document was opened,
+ * and hands them to {@link PDFView} batch by batch so the layout is corrected progressively.
+ * Pages after the ones read when opening come first, then the pages before them.
+ */
+class PageSizeLoadingTask extends AsyncTask<Void, PageSizeLoadingTask.Batch, Void> {
+
+    private static final int BATCH_SIZE = 200;
+
+    private final WeakReference<PDFView> pdfViewReference;
+
+    private final PdfFile pdfFile;
+
+    PageSizeLoadingTask(PDFView pdfView, PdfFile pdfFile) {
+        this.pdfViewReference = new WeakReference<>(pdfView);
+        this.pdfFile = pdfFile;
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        if (readPageSizes(pdfFile.getInitialPageSizesEnd(), pdfFile.getPagesCount())) {
+            readPageSizes(0, pdfFile.getInitialPageSizesStart());
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the task was cancelled or the document closed
+     */
+    private boolean readPageSizes(int startPage, int endPage) {
+        for (int fromPage = startPage; fromPage < endPage; fromPage += BATCH_SIZE) {
+            if (isCancelled()) {
+                return false;
+            }
+            int toPage = Math.min(endPage, fromPage + BATCH_SIZE);
+            List<Size> sizes = pdfFile.readPageSizes(fromPage, toPage);
+            if (sizes == null) {
+                return false;
+            }
+            publishProgress(new Batch(fromPage, sizes));
+        }
+        return true;
+    }
+
+    @Override
+    protected void onProgressUpdate(Batch... batches) {
+        PDFView pdfView = pdfViewReference.get();
+        if (pdfView != null && !isCancelled()) {
+            for (Batch batch : batches) {
+                pdfView.onPageSizesLoaded(pdfFile, batch.fromPage, batch.sizes);
+            }
+        }
+    }
+
+    static class Batch {
+        final int fromPage;
+        final List<Size> sizes;
+
+        Batch(int fromPage, List<Size> sizes) {
+            this.fromPage = fromPage;
+            this.sizes = sizes;
+        }
+    }
+}
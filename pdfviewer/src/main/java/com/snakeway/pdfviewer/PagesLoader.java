@@ -25,6 +25,9 @@ class PagesLoader {
     private float partRenderHeight;
     private final RectF thumbnailRect = new RectF(0, 0, 1, 1);
     private final int preloadOffset;
+    private float partSize = Constants.PART_SIZE;
+    private float partSizeZoom = -1;
+    private final RectF prefetchViewport = new RectF();
 
     private class Holder {
         int row;
@@ -85,8 +88,8 @@ class PagesLoader {
         SizeF size = pdfView.pdfFile.getPageSize(pageIndex);
         float ratioX = 1f / size.getWidth();
         float ratioY = 1f / size.getHeight();
-        final float partHeight = (Constants.PART_SIZE * ratioY) / pdfView.getZoom();
-        final float partWidth = (Constants.PART_SIZE * ratioX) / pdfView.getZoom();
+        final float partHeight = (partSize * ratioY) / pdfView.getZoom();
+        final float partWidth = (partSize * ratioX) / pdfView.getZoom();
         grid.rows = MathUtils.ceil(1f / partHeight);
         grid.cols = MathUtils.ceil(1f / partWidth);
     }
@@ -94,8 +97,8 @@ class PagesLoader {
     private void calculatePartSize(GridSize grid) {
         pageRelativePartWidth = 1f / (float) grid.cols;
         pageRelativePartHeight = 1f / (float) grid.rows;
-        partRenderWidth = Constants.PART_SIZE / pageRelativePartWidth;
-        partRenderHeight = Constants.PART_SIZE / pageRelativePartHeight;
+        partRenderWidth = partSize / pageRelativePartWidth;
+        partRenderHeight = partSize / pageRelativePartHeight;
     }
 
 
@@ -212,6 +215,31 @@ class PagesLoader {
     }
 
     private void loadVisible() {
+        loadArea(xOffset, yOffset, CACHE_SIZE, false);
+    }
+
+    /**
+     * Load the parts where the current fling ends, once it is out of the preloaded area
+     */
+    private void loadPrefetch() {
+        if (!pdfView.renderingPool.getPrefetchViewport(prefetchViewport)) {
+            return;
+        }
+        float targetXOffset = -MathUtils.max(-prefetchViewport.left, 0);
+        float targetYOffset = -MathUtils.max(-prefetchViewport.top, 0);
+        if (Math.abs(targetXOffset - xOffset) < pdfView.getWidth() + 2 * preloadOffset
+                && Math.abs(targetYOffset - yOffset) < pdfView.getHeight() + 2 * preloadOffset) {
+            return;
+        }
+        loadArea(targetXOffset, targetYOffset, Constants.PREFETCH_PART_COUNT, true);
+    }
+
+    /**
+     * Load the thumbnails and parts of the view at the given offsets
+     *
+     * @return the count of parts loaded
+     */
+    private int loadArea(float xOffset, float yOffset, int maxParts, boolean prefetch) {
         int parts = 0;
         float scaledPreloadOffset = preloadOffset;
         float firstXOffset = -xOffset + scaledPreloadOffset;
@@ -222,25 +250,25 @@ class PagesLoader {
         List<RenderRange> rangeList = getRenderRangeList(firstXOffset, firstYOffset, lastXOffset, lastYOffset);
 
         for (RenderRange range : rangeList) {
-            loadThumbnail(range.page);
+            loadThumbnail(range.page, prefetch);
         }
 
         for (RenderRange range : rangeList) {
             calculatePartSize(range.gridSize);
-            parts += loadPage(range.page, range.leftTop.row, range.rightBottom.row, range.leftTop.col, range.rightBottom.col, CACHE_SIZE - parts);
-            if (parts >= CACHE_SIZE) {
+            parts += loadPage(range.page, range.leftTop.row, range.rightBottom.row, range.leftTop.col, range.rightBottom.col, maxParts - parts, prefetch);
+            if (parts >= maxParts) {
                 break;
             }
         }
-
+        return parts;
     }
 
     private int loadPage(int page, int firstRow, int lastRow, int firstCol, int lastCol,
-                         int nbOfPartsLoadable) {
+                         int nbOfPartsLoadable, boolean prefetch) {
         int loaded = 0;
         for (int row = firstRow; row <= lastRow; row++) {
             for (int col = firstCol; col <= lastCol; col++) {
-                if (loadCell(page, row, col, pageRelativePartWidth, pageRelativePartHeight)) {
+                if (loadCell(page, row, col, pageRelativePartWidth, pageRelativePartHeight, prefetch)) {
                     loaded++;
                 }
                 if (loaded >= nbOfPartsLoadable) {
@@ -251,7 +279,7 @@ class PagesLoader {
         return loaded;
     }
 
-    private boolean loadCell(int page, int row, int col, float pageRelativePartWidth, float pageRelativePartHeight) {
+    private boolean loadCell(int page, int row, int col, float pageRelativePartWidth, float pageRelativePartHeight, boolean prefetch) {
 
         float relX = pageRelativePartWidth * col;
         float relY = pageRelativePartHeight * row;
@@ -271,10 +299,17 @@ class PagesLoader {
         RectF pageRelativeBounds = new RectF(relX, relY, relX + relWidth, relY + relHeight);
 
         if (renderWidth > 0 && renderHeight > 0) {
-            if (!pdfView.cacheManager.upPartIfContained(page, pageRelativeBounds, cacheOrder)) {
-                pdfView.renderingHandler.addRenderingTask(page, renderWidth, renderHeight,
-                        pageRelativeBounds, false, cacheOrder, pdfView.isBestQuality(),
-                        pdfView.isAnnotationRendering());
+            if (!pdfView.cacheManager.upPartIfContained(page, pageRelativeBounds,
+                    Math.round(renderWidth), Math.round(renderHeight), cacheOrder)) {
+                if (prefetch) {
+                    pdfView.renderingPool.addPrefetchTask(page, renderWidth, renderHeight,
+                            pageRelativeBounds, false, cacheOrder, pdfView.isBestQuality(),
+                            pdfView.isAnnotationRendering());
+                } else {
+                    pdfView.renderingPool.addRenderingTask(page, renderWidth, renderHeight,
+                            pageRelativeBounds, false, cacheOrder, pdfView.isBestQuality(),
+                            pdfView.isAnnotationRendering());
+                }
             }
 
             cacheOrder++;
@@ -283,22 +318,45 @@ class PagesLoader {
         return false;
     }
 
-    private void loadThumbnail(int page) {
+    private void loadThumbnail(int page, boolean prefetch) {
         SizeF pageSize = pdfView.pdfFile.getPageSize(page);
         float thumbnailWidth = pageSize.getWidth() * Constants.THUMBNAIL_RATIO;
         float thumbnailHeight = pageSize.getHeight() * Constants.THUMBNAIL_RATIO;
-        if (!pdfView.cacheManager.containsThumbnail(page, thumbnailRect)) {
-            pdfView.renderingHandler.addRenderingTask(page,
+        if (pdfView.cacheManager.containsThumbnail(page, thumbnailRect)) {
+            return;
+        }
+        if (prefetch) {
+            pdfView.renderingPool.addPrefetchTask(page,
+                    thumbnailWidth, thumbnailHeight, thumbnailRect,
+                    true, 0, pdfView.isBestQuality(), pdfView.isAnnotationRendering());
+        } else {
+            pdfView.renderingPool.addRenderingTask(page,
                     thumbnailWidth, thumbnailHeight, thumbnailRect,
                     true, 0, pdfView.isBestQuality(), pdfView.isAnnotationRendering());
         }
     }
 
+    /**
+     * Choose the part size when the zoom changes, so the grid of a zoom level stays stable while scrolling
+     */
+    private void updatePartSize() {
+        float zoom = pdfView.getZoom();
+        if (zoom == partSizeZoom) {
+            return;
+        }
+        partSizeZoom = zoom;
+        SizeF pageSize = pdfView.pdfFile.getScaledPageSize(pdfView.getCurrentPage(), zoom);
+        partSize = pdfView.renderingPool.getPartSizePolicy().getPartSize(pageSize.getWidth(), pageSize.getHeight(),
+                pdfView.getWidth(), pdfView.getHeight());
+    }
+
     void loadPages() {
         cacheOrder = 1;
+        updatePartSize();
         xOffset = -MathUtils.max(pdfView.getCurrentXOffset(), 0);
         yOffset = -MathUtils.max(pdfView.getCurrentYOffset(), 0);
 
         loadVisible();
+        loadPrefetch();
     }
 }
@@ -0,0 +1,89 @@
+package com.snakeway.pdfviewer;
+
+import com.snakeway.pdfviewer.util.Constants;
+
+/**
+ * Chooses the size of the rendered parts from the measured render cost of the device.
+ * <p>
+ * A part costs a fixed setup time, the native call and the bitmap, plus a time per pixel. Both are
+ * estimated by a least squares fit over the recent renders. For a zoom, each candidate size is
+ * costed over the visible part of a page: small parts multiply the setup time, large parts render
+ * pixels beyond the viewport at its edges. When zoomed out a whole page fits in a few parts, so
+ * larger parts win, when deeply zoomed the overdraw makes smaller parts win.
+ */
+class PartSizePolicy {
+
+    /**
+     * Weight kept by the previous samples at each new sample
+     */
+    private static final double DECAY = 0.97;
+
+    /**
+     * Renders measured before the fit replaces {@link Constants#PART_SIZE}
+     */
+    private static final int MIN_SAMPLE_COUNT = 16;
+
+    private double weight = 0;
+    private double sumPixels = 0;
+    private double sumTime = 0;
+    private double sumPixelsSquared = 0;
+    private double sumPixelsTime = 0;
+    private int sampleCount = 0;
+
+    /**
+     * Record a finished render of a part
+     */
+    synchronized void onPartRendered(long pixels, long renderNanos) {
+        weight = weight * DECAY + 1;
+        sumPixels = sumPixels * DECAY + pixels;
+        sumTime = sumTime * DECAY + renderNanos;
+        sumPixelsSquared = sumPixelsSquared * DECAY + (double) pixels * pixels;
+        sumPixelsTime = sumPixelsTime * DECAY + (double) pixels * renderNanos;
+        sampleCount++;
+    }
+
+    /**
+     * Size of the parts for a page shown at a zoom in a view
+     *
+     * @param pageWidth  width of the page at the zoom
+     * @param pageHeight height of the page at the zoom
+     */
+    synchronized float getPartSize(float pageWidth, float pageHeight, float viewWidth, float viewHeight) {
+        if (sampleCount < MIN_SAMPLE_COUNT || viewWidth <= 0 || viewHeight <= 0) {
+            return Constants.PART_SIZE;
+        }
+        double variance = weight * sumPixelsSquared - sumPixels * sumPixels;
+        if (variance <= weight * sumPixelsSquared * 1e-6) {
+            return Constants.PART_SIZE;
+        }
+        double pixelTime = (weight * sumPixelsTime - sumPixels * sumTime) / variance;
+        double setupTime = (sumTime - pixelTime * sumPixels) / weight;
+        if (pixelTime <= 0 || setupTime < 0) {
+            return Constants.PART_SIZE;
+        }
+        float bestSize = Constants.PART_SIZE;
+        double bestCost = Double.MAX_VALUE;
+        for (float size = Constants.MIN_PART_SIZE; size <= Constants.MAX_PART_SIZE; size *= 2) {
+            double partsX = getPartCount(pageWidth, viewWidth, size);
+            double partsY = getPartCount(pageHeight, viewHeight, size);
+            double pixels = Math.min(pageWidth, partsX * size) * Math.min(pageHeight, partsY * size);
+            double cost = partsX * partsY * setupTime + pixels * pixelTime;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestSize = size;
+            }
+        }
+        return bestSize;
+    }
+
+    /**
+     * Parts covering the visible extent of a page along one axis. A page larger than the view is
+     * cut by the view edges, which cross one more part on average.
+     */
+    private static double getPartCount(float pageSize, float viewSize, float partSize) {
+        if (pageSize <= viewSize) {
+            return Math.ceil(pageSize / partSize);
+        }
+        return Math.min(Math.ceil(pageSize / partSize), viewSize / partSize + 1);
+    }
+}
@@ -7,6 +7,7 @@ import android.util.SparseBooleanArray;
 
 import com.snakeway.pdflibrary.PdfDocument;
 import com.snakeway.pdflibrary.PdfiumCore;
+import com.snakeway.pdflibrary.RenderPauseCallback;
 import com.snakeway.pdflibrary.util.Size;
 import com.snakeway.pdflibrary.util.SizeF;
 import com.snakeway.pdfviewer.exception.PageRenderingException;
@@ -18,10 +19,19 @@ import java.util.List;
 
 class PdfFile {
 
-    private static final Object lock = new Object();
+    /**
+     * Number of pages around the default page whose size is read before the document is shown,
+     * the others are estimated and read in the background by {@link PageSizeLoadingTask}
+     */
+    static final int INITIAL_PAGE_SIZE_COUNT = 20;
+    private final Object lock = new Object();
     public PdfDocument pdfDocument;
     public PdfiumCore pdfiumCore;
     private int pagesCount = 0;
+    /**
+     * Identifier of the document content, null when unknown
+     */
+    private String fingerprint;
     /**
      * Original page sizes
      */
@@ -34,6 +44,10 @@ class PdfFile {
      * Opened pages with indicator whether opening was successful
      */
     private SparseBooleanArray openedPages = new SparseBooleanArray();
+    /**
+     * Text reads in progress on background threads
+     */
+    private int activeTextReads = 0;
     /**
      * Page with maximum width
      */
@@ -55,69 +69,250 @@ class PdfFile {
      */
     private boolean isVertical;
     /**
-     * Fixed spacing between pages in pixels
+     * Offsets of the pages and document length along the scroll axis
      */
-    private int spacingPx;
+    private final PageLayout pageLayout;
+    private final FitPolicy pageFitPolicy;
     /**
-     * Calculate spacing automatically so each page fits on it's own in the center of the view
+     * True if every page should fit separately according to the FitPolicy,
+     * else the largest page fits and other pages scale relatively
      */
-    private boolean autoSpacing;
+    private final boolean fitEachPage;
     /**
-     * Calculated offsets for pages
+     * The pages the user want to display in order
+     * (ex: 0, 2, 2, 8, 8, 1, 1, 1)
      */
-    private List<Float> pageOffsets = new ArrayList<>();
+    private int[] originalUserPages;
     /**
-     * Calculated auto spacing for pages
+     * Pages from this index to {@link #initialPageSizesEnd} excluded had their size read when opening
      */
-    private List<Float> pageSpacing = new ArrayList<>();
+    private int initialPageSizesStart = 0;
+    private int initialPageSizesEnd = 0;
     /**
-     * Calculated document length (width or height, depending on swipe mode)
+     * Number of pages which still have an estimated size
      */
-    private float documentLength = 0;
-    private final FitPolicy pageFitPolicy;
+    private int estimatedPageSizeCount = 0;
     /**
-     * True if every page should fit separately according to the FitPolicy,
-     * else the largest page fits and other pages scale relatively
+     * Calculator of the current page sizes, kept to scale the sizes read later the same way
      */
-    private final boolean fitEachPage;
+    private PageSizeCalculator pageSizeCalculator;
     /**
-     * The pages the user want to display in order
-     * (ex: 0, 2, 2, 8, 8, 1, 1, 1)
+     * Last view size used to compute the page sizes
      */
-    private int[] originalUserPages;
+    private Size viewSize;
+    /**
+     * Set under {@link #lock} when the document is closed
+     */
+    private boolean disposed = false;
 
     PdfFile(PdfiumCore pdfiumCore, PdfDocument pdfDocument, FitPolicy pageFitPolicy, Size viewSize, int[] originalUserPages,
-            boolean isVertical, int spacing, boolean autoSpacing, boolean fitEachPage) {
+            boolean isVertical, int spacing, boolean autoSpacing, boolean fitEachPage, int defaultPage) {
         this.pdfiumCore = pdfiumCore;
         this.pdfDocument = pdfDocument;
         this.pageFitPolicy = pageFitPolicy;
         this.originalUserPages = originalUserPages;
         this.isVertical = isVertical;
-        this.spacingPx = spacing;
-        this.autoSpacing = autoSpacing;
         this.fitEachPage = fitEachPage;
-        setup(viewSize);
+        this.pageLayout = new PageLayout(spacing, autoSpacing);
+        setup(viewSize, defaultPage);
     }
 
-    private void setup(Size viewSize) {
+    private void setup(Size viewSize, int defaultPage) {
         if (originalUserPages != null) {
             pagesCount = originalUserPages.length;
         } else {
             pagesCount = pdfiumCore.getPageCount(pdfDocument);
         }
 
-        for (int i = 0; i < pagesCount; i++) {
+        initialPageSizesStart = Math.max(0, Math.min(defaultPage - INITIAL_PAGE_SIZE_COUNT / 2, pagesCount - INITIAL_PAGE_SIZE_COUNT));
+        initialPageSizesEnd = Math.min(pagesCount, initialPageSizesStart + INITIAL_PAGE_SIZE_COUNT);
+        List<Size> initialSizes = new ArrayList<>(initialPageSizesEnd - initialPageSizesStart);
+        for (int i = initialPageSizesStart; i < initialPageSizesEnd; i++) {
             Size pageSize = pdfiumCore.getPageSize(pdfDocument, documentPage(i));
-            if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
-                originalMaxWidthPageSize = pageSize;
+            updateOriginalMaxPageSize(pageSize);
+            initialSizes.add(pageSize);
+        }
+        // Until they are read, the other pages are assumed to be like the nearest known one
+        Size firstSize = initialSizes.isEmpty() ? new Size(0, 0) : initialSizes.get(0);
+        Size lastSize = initialSizes.isEmpty() ? new Size(0, 0) : initialSizes.get(initialSizes.size() - 1);
+        for (int i = 0; i < initialPageSizesStart; i++) {
+            originalPageSizes.add(firstSize);
+        }
+        originalPageSizes.addAll(initialSizes);
+        for (int i = initialPageSizesEnd; i < pagesCount; i++) {
+            originalPageSizes.add(lastSize);
+        }
+        estimatedPageSizeCount = pagesCount - initialSizes.size();
+
+        recalculatePageSizes(viewSize);
+    }
+
+    /**
+     * @return true if the page is wider or higher than the known pages
+     */
+    private boolean updateOriginalMaxPageSize(Size pageSize) {
+        boolean changed = false;
+        if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
+            originalMaxWidthPageSize = pageSize;
+            changed = true;
+        }
+        if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
+            originalMaxHeightPageSize = pageSize;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * @return true while some pages only have an estimated size
+     */
+    public boolean hasEstimatedPageSizes() {
+        return estimatedPageSizeCount > 0;
+    }
+
+    /**
+     * @return first page whose size was read when opening the document
+     */
+    int getInitialPageSizesStart() {
+        return initialPageSizesStart;
+    }
+
+    /**
+     * @return page following the last one whose size was read when opening the document
+     */
+    int getInitialPageSizesEnd() {
+        return initialPageSizesEnd;
+    }
+
+    /**
+     * Read the real size of pages, called on a background thread
+     *
+     * @return the sizes from fromPage to toPage excluded, or null if the document was closed
+     */
+    List<Size> readPageSizes(int fromPage, int toPage) {
+        List<Size> sizes = new ArrayList<>(toPage - fromPage);
+        for (int i = fromPage; i < toPage; i++) {
+            synchronized (lock) {
+                if (disposed) {
+                    return null;
+                }
+                sizes.add(pdfiumCore.getPageSize(pdfDocument, documentPage(i)));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Read the text of a document page, called on a background thread
+     *
+     * @return the text, or null if the document was closed
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    char[] extractPageText(int docPage) {
+        if (!beginTextRead()) {
+            return null;
+        }
+        try {
+            return pdfiumCore.extractPageText(pdfDocument, docPage);
+        } finally {
+            endTextRead();
+        }
+    }
+
+    /**
+     * Read the boxes of char ranges of a document page merged by line, called on a background thread
+     *
+     * @param ranges start and count of each range
+     * @return the line count of each range followed by left, top, right and bottom of each line,
+     * or null if the document was closed
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    float[] extractTextLineRects(int docPage, int[] ranges) {
+        if (!beginTextRead()) {
+            return null;
+        }
+        try {
+            return pdfiumCore.extractTextLineRects(pdfDocument, docPage, ranges);
+        } finally {
+            endTextRead();
+        }
+    }
+
+    /**
+     * Open a page so a match can be selected, and read the boxes of a char range merged by line,
+     * called on a background thread
+     *
+     * @return left, top, right and bottom of each line, or null if the page cannot be opened or
+     * the document was closed
+     */
+    float[] openTextLineRects(int pageIndex, int start, int count) {
+        if (!beginTextRead()) {
+            return null;
+        }
+        try {
+            try {
+                openPage(pageIndex);
+            } catch (PageRenderingException e) {
+                return null;
+            }
+            int docPage = documentPage(pageIndex);
+            Long textPagePtr = getTextPage(docPage);
+            if (textPagePtr == null) {
+                return null;
             }
-            if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
-                originalMaxHeightPageSize = pageSize;
+            return pdfiumCore.getTextLineRects(pdfDocument, docPage, textPagePtr, start, count);
+        } finally {
+            endTextRead();
+        }
+    }
+
+    /**
+     * Check that the document is not disposed and mark a read in progress in the same lock, so
+     * {@link #dispose()} either waits for the read or the read does not start
+     *
+     * @return false if the document was closed
+     */
+    private boolean beginTextRead() {
+        synchronized (lock) {
+            if (disposed) {
+                return false;
             }
-            originalPageSizes.add(pageSize);
+            activeTextReads++;
+            return true;
         }
+    }
 
-        recalculatePageSizes(viewSize);
+    private void endTextRead() {
+        synchronized (lock) {
+            activeTextReads--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Replace the estimated sizes of some pages by their real sizes. Only the offsets from fromPage
+     * are updated, unless a page is larger than the known ones and all sizes must be scaled again.
+     * Must be called on the UI thread, each page only once.
+     */
+    void applyPageSizes(int fromPage, List<Size> sizes) {
+        boolean maxPageSizeChanged = false;
+        for (int i = 0; i < sizes.size(); i++) {
+            Size pageSize = sizes.get(i);
+            maxPageSizeChanged |= updateOriginalMaxPageSize(pageSize);
+            originalPageSizes.set(fromPage + i, pageSize);
+        }
+        estimatedPageSizeCount -= sizes.size();
+        if (maxPageSizeChanged) {
+            recalculatePageSizes(viewSize);
+            return;
+        }
+        float[] pageLengths = new float[sizes.size()];
+        for (int i = 0; i < pageLengths.length; i++) {
+            SizeF pageSize = pageSizeCalculator.calculate(sizes.get(i));
+            pageSizes.set(fromPage + i, pageSize);
+            pageLengths[i] = isVertical ? pageSize.getHeight() : pageSize.getWidth();
+        }
+        pageLayout.update(fromPage, pageLengths);
     }
 
     /**
@@ -126,20 +321,20 @@ class PdfFile {
      * @param viewSize new size of changed view
      */
     public void recalculatePageSizes(Size viewSize) {
+        this.viewSize = viewSize;
         pageSizes.clear();
-        PageSizeCalculator calculator = new PageSizeCalculator(pageFitPolicy, originalMaxWidthPageSize,
+        pageSizeCalculator = new PageSizeCalculator(pageFitPolicy, originalMaxWidthPageSize,
                 originalMaxHeightPageSize, viewSize, fitEachPage);
-        maxWidthPageSize = calculator.getOptimalMaxWidthPageSize();
-        maxHeightPageSize = calculator.getOptimalMaxHeightPageSize();
-
-        for (Size size : originalPageSizes) {
-            pageSizes.add(calculator.calculate(size));
-        }
-        if (autoSpacing) {
-            prepareAutoSpacing(viewSize);
+        maxWidthPageSize = pageSizeCalculator.getOptimalMaxWidthPageSize();
+        maxHeightPageSize = pageSizeCalculator.getOptimalMaxHeightPageSize();
+
+        float[] pageLengths = new float[originalPageSizes.size()];
+        for (int i = 0; i < pageLengths.length; i++) {
+            SizeF pageSize = pageSizeCalculator.calculate(originalPageSizes.get(i));
+            pageSizes.add(pageSize);
+            pageLengths[i] = isVertical ? pageSize.getHeight() : pageSize.getWidth();
         }
-        prepareDocLen();
-        preparePagesOffset();
+        pageLayout.layout(pageLengths, isVertical ? viewSize.getHeight() : viewSize.getWidth());
     }
 
     public int getPagesCount() {
@@ -178,57 +373,24 @@ class PdfFile {
     }
 
 
-    private void prepareAutoSpacing(Size viewSize) {
-        pageSpacing.clear();
-        for (int i = 0; i < getPagesCount(); i++) {
-            SizeF pageSize = pageSizes.get(i);
-            float spacing = Math.max(0, isVertical ? viewSize.getHeight() - pageSize.getHeight() :
-                    viewSize.getWidth() - pageSize.getWidth());
-            if (i < getPagesCount() - 1) {
-                spacing += spacingPx;
-            }
-            pageSpacing.add(spacing);
-        }
+    /**
+     * Find the page at a position of the unzoomed strip, as {@link CoordinateUtils#getPdfCoordinate(PDFView, float, float)}
+     *
+     * @return the first page ending after the position, or -1 if the position is after the last page
+     */
+    int getPageAtStripPosition(float position) {
+        return pageLayout.getPageAtStripPosition(position);
     }
 
-    private void prepareDocLen() {
-        float length = 0;
-        for (int i = 0; i < getPagesCount(); i++) {
-            SizeF pageSize = pageSizes.get(i);
-            length += isVertical ? pageSize.getHeight() : pageSize.getWidth();
-            if (autoSpacing) {
-                length += pageSpacing.get(i);
-            } else if (i < getPagesCount() - 1) {
-                length += spacingPx;
-            }
-        }
-        documentLength = length;
-    }
-
-    private void preparePagesOffset() {
-        pageOffsets.clear();
-        float offset = 0;
-        for (int i = 0; i < getPagesCount(); i++) {
-            SizeF pageSize = pageSizes.get(i);
-            float size = isVertical ? pageSize.getHeight() : pageSize.getWidth();
-            if (autoSpacing) {
-                offset += pageSpacing.get(i) / 2f;
-                if (i == 0) {
-                    offset -= spacingPx / 2f;
-                } else if (i == getPagesCount() - 1) {
-                    offset += spacingPx / 2f;
-                }
-                pageOffsets.add(offset);
-                offset += size + pageSpacing.get(i) / 2f;
-            } else {
-                pageOffsets.add(offset);
-                offset += size + spacingPx;
-            }
-        }
+    /**
+     * Start of a page in the unzoomed strip, see {@link #getPageAtStripPosition(float)}
+     */
+    float getStripPageStart(int pageIndex) {
+        return pageLayout.getStripPageStart(pageIndex);
     }
 
     public float getDocLen(float zoom) {
-        return documentLength * zoom;
+        return pageLayout.getDocumentLength() * zoom;
     }
 
     /**
@@ -240,8 +402,7 @@ class PdfFile {
     }
 
     public float getPageSpacing(int pageIndex, float zoom) {
-        float spacing = autoSpacing ? pageSpacing.get(pageIndex) : spacingPx;
-        return spacing * zoom;
+        return pageLayout.getPageSpacing(pageIndex) * zoom;
     }
 
     /**
@@ -252,7 +413,7 @@ class PdfFile {
         if (docPage < 0) {
             return 0;
         }
-        return pageOffsets.get(pageIndex) * zoom;
+        return pageLayout.getPageOffset(pageIndex) * zoom;
     }
 
     /**
@@ -270,15 +431,7 @@ class PdfFile {
     }
 
     public int getPageAtOffset(float offset, float zoom) {
-        int currentPage = 0;
-        for (int i = 0; i < getPagesCount(); i++) {
-            float off = pageOffsets.get(i) * zoom - getPageSpacing(i, zoom) / 2f;
-            if (off >= offset) {
-                break;
-            }
-            currentPage++;
-        }
-        return --currentPage >= 0 ? currentPage : 0;
+        return pageLayout.getPageAtOffset(offset, zoom);
     }
 
     public boolean openPage(int pageIndex) throws PageRenderingException {
@@ -302,6 +455,25 @@ class PdfFile {
         }
     }
 
+    /**
+     * Get the text page of a document page opened for rendering, loaded on first use. It may be
+     * closed again when the document keeps too many pages opened, so request it for each use.
+     *
+     * @return the native text page pointer, or null if the page is not opened yet or has no text
+     */
+    public Long getTextPage(int docPage) {
+        synchronized (lock) {
+            if (!openedPages.get(docPage, false)) {
+                return null;
+            }
+        }
+        try {
+            return pdfiumCore.openTextPage(pdfDocument, docPage);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
     public boolean pageHasError(int pageIndex) {
         int docPage = documentPage(pageIndex);
         return !openedPages.get(docPage, false);
@@ -313,6 +485,30 @@ class PdfFile {
                 bounds.left, bounds.top, bounds.width(), bounds.height(), annotationRendering);
     }
 
+    /**
+     * Render progressively, called by the rendering workers
+     *
+     * @return the time pdfium spent rendering in nanoseconds, or -1 if the callback aborted the
+     * render or the document was closed
+     * @throws PageRenderingException if pdfium failed to render the page
+     */
+    public long renderPageBitmap(Bitmap bitmap, int pageIndex, Rect bounds, boolean annotationRendering, RenderPauseCallback pauseCallback) throws PageRenderingException {
+        PdfDocument document;
+        synchronized (lock) {
+            if (disposed) {
+                return -1;
+            }
+            document = pdfDocument;
+        }
+        int docPage = documentPage(pageIndex);
+        try {
+            return pdfiumCore.renderPageBitmap(document, bitmap, docPage,
+                    bounds.left, bounds.top, bounds.width(), bounds.height(), annotationRendering, pauseCallback);
+        } catch (IllegalStateException e) {
+            throw new PageRenderingException(pageIndex, e);
+        }
+    }
+
     public float getDpi() {
         if (pdfiumCore == null) {
             return 1;
@@ -339,6 +535,23 @@ class PdfFile {
         return pdfiumCore.getPageLinks(pdfDocument, docPage);
     }
 
+    /**
+     * Get the content bounds of a page in fractions of its size without rendering it
+     *
+     * @return the bounds, empty if the page is blank, or null if the page must be rendered to find them
+     */
+    public RectF getPageContentBounds(int pageIndex) {
+        int docPage = documentPage(pageIndex);
+        if (docPage < 0) {
+            return null;
+        }
+        try {
+            return pdfiumCore.getPageContentBounds(pdfDocument, docPage);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
     public RectF mapRectToDevice(int pageIndex, int startX, int startY, int sizeX, int sizeY,
                                  RectF rect) {
         int docPage = documentPage(pageIndex);
@@ -346,6 +559,20 @@ class PdfFile {
     }
 
     public void dispose() {
+        synchronized (lock) {
+            disposed = true;
+            boolean interrupted = false;
+            while (activeTextReads > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (pdfiumCore != null && pdfDocument != null) {
             pdfiumCore.closeDocument(pdfDocument);
         }
@@ -378,6 +605,14 @@ class PdfFile {
         return userPage;
     }
 
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
     public int documentPage(int userPage) {
         int documentPage = userPage;
         if (originalUserPages != null) {
@@ -106,7 +106,7 @@ public class RenderingCustomHandler extends Handler {
 
             Bitmap render;
             try {
-                render = Bitmap.createBitmap(w, h, bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+                render = pdfView.bitmapPool.acquire(w, h, bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
             } catch (IllegalArgumentException e) {
                 e.printStackTrace();
                 continue;
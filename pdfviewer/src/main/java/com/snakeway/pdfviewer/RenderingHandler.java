@@ -4,18 +4,23 @@ import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import com.snakeway.pdflibrary.RenderPauseCallback;
 import com.snakeway.pdfviewer.exception.PageRenderingException;
 import com.snakeway.pdfviewer.model.PagePart;
 
+import java.util.concurrent.TimeUnit;
+
 /**
- * A {@link Handler} that will process incoming {@link RenderingTask} messages
- * and alert {@link PDFView#onBitmapRendered(PagePart)} when the portion of the
- * PDF is ready to render.
+ * A {@link Handler} that will process incoming render messages by taking the most
+ * useful {@link RenderingTask} from its {@link RenderingPool}, and alert
+ * {@link PDFView#onBitmapRendered(PagePart)} when the portion of the PDF is ready to render.
+ * Several handlers run side by side in the pool and render from the same document.
  */
 class RenderingHandler extends Handler {
     /**
@@ -27,35 +32,45 @@ class RenderingHandler extends Handler {
 
     private PDFView pdfView;
 
+    private final RenderingPool renderingPool;
+
     private RectF renderBounds = new RectF();
     private Rect roundedRenderBounds = new Rect();
     private Matrix renderMatrix = new Matrix();
-    private boolean running = false;
+    private volatile boolean running = false;
     private int requestCount = 0;
 
-    RenderingHandler(Looper looper, PDFView pdfView) {
+    private RenderingTask currentTask;
+
+    private final RenderPauseCallback pauseCallback = new RenderPauseCallback() {
+        @Override
+        public boolean needToPause() {
+            return !running || renderingPool.shouldAbort(currentTask);
+        }
+    };
+
+    RenderingHandler(Looper looper, PDFView pdfView, RenderingPool renderingPool) {
         super(looper);
         this.pdfView = pdfView;
-    }
-
-    void addRenderingTask(int page, float width, float height, RectF bounds, boolean thumbnail, int cacheOrder, boolean bestQuality, boolean annotationRendering) {
-        RenderingTask task = new RenderingTask(width, height, bounds, page, thumbnail, cacheOrder, bestQuality, annotationRendering);
-        Message msg = obtainMessage(MSG_RENDER_TASK, task);
-        sendMessage(msg);
+        this.renderingPool = renderingPool;
     }
 
     @Override
     public void handleMessage(Message message) {
-
-        RenderingTask task = (RenderingTask) message.obj;
         try {
             requestCount++;
             if (!running) {
                 return;
             }
+            RenderingTask task = renderingPool.pollRenderingTask();
+            if (task == null) {
+                return;
+            }
             final PagePart part = proceed(task);
             if (part != null) {
                 if (running) {
+                    // Uploaded only once the part is kept, a stopped render goes back to the pool as is
+                    part.setRenderedBitmap(toHardwareBitmap(part.getRenderedBitmap()));
                     pdfView.post(new Runnable() {
                         @Override
                         public void run() {
@@ -63,7 +78,7 @@ class RenderingHandler extends Handler {
                         }
                     });
                 } else {
-                    part.getRenderedBitmap().recycle();
+                    pdfView.bitmapPool.release(part.getRenderedBitmap());
                 }
             }
         } catch (final PageRenderingException ex) {
@@ -83,29 +98,91 @@ class RenderingHandler extends Handler {
         if (pdfFile == null) {
             return null;
         }
-        pdfFile.openPage(renderingTask.page);
-
         int w = Math.round(renderingTask.width);
         int h = Math.round(renderingTask.height);
 
-        if (w == 0 || h == 0 || pdfFile.pageHasError(renderingTask.page)) {
+        if (w == 0 || h == 0) {
             return null;
         }
 
         Bitmap render;
         try {
-            render = Bitmap.createBitmap(w, h, renderingTask.bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+            render = pdfView.bitmapPool.acquire(w, h, renderingTask.bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Cannot create bitmap", e);
             return null;
         }
+
+        DiskCacheManager diskCacheManager = pdfView.diskCacheManager;
+        String diskKey = null;
+        if (diskCacheManager != null && pdfFile.getFingerprint() != null) {
+            diskKey = DiskCacheManager.getKey(pdfFile.getFingerprint(), pdfFile.documentPage(renderingTask.page),
+                    renderingTask.bounds, w, h, renderingTask.bestQuality, renderingTask.annotationRendering);
+            if (diskCacheManager.read(diskKey, render)) {
+                PagePart part = new PagePart(renderingTask.page, render,
+                        renderingTask.bounds, renderingTask.thumbnail,
+                        renderingTask.cacheOrder);
+                part.setZoom(renderingTask.zoom);
+                return part;
+            }
+        }
+
+        pdfFile.openPage(renderingTask.page);
+        if (pdfFile.pageHasError(renderingTask.page)) {
+            pdfView.bitmapPool.release(render);
+            return null;
+        }
         calculateBounds(w, h, renderingTask.bounds);
 
-        pdfFile.renderPageBitmap(render, renderingTask.page, roundedRenderBounds, renderingTask.annotationRendering);
+        currentTask = renderingTask;
+        // Measured inside the pdfium lock, waiting for the other workers would skew the part size
+        long renderNanos;
+        try {
+            renderNanos = pdfFile.renderPageBitmap(render, renderingTask.page, roundedRenderBounds, renderingTask.annotationRendering, pauseCallback);
+        } catch (PageRenderingException e) {
+            // The pixels of a pooled bitmap are undefined after a failed render
+            pdfView.bitmapPool.release(render);
+            throw e;
+        } finally {
+            currentTask = null;
+        }
+        if (renderNanos < 0) {
+            pdfView.bitmapPool.release(render);
+            if (running) {
+                renderingPool.onTaskAborted(this, renderingTask);
+            }
+            return null;
+        }
+
+        renderingPool.getPartSizePolicy().onPartRendered((long) w * h, renderNanos);
 
-        return new PagePart(renderingTask.page, render,
+        long renderTime = TimeUnit.NANOSECONDS.toMillis(renderNanos);
+        renderingPool.onTaskRendered(renderingTask.page, renderTime);
+        if (diskKey != null) {
+            diskCacheManager.write(diskKey, render);
+        }
+        PagePart part = new PagePart(renderingTask.page, render,
                 renderingTask.bounds, renderingTask.thumbnail,
                 renderingTask.cacheOrder);
+        part.setRenderTime(renderTime);
+        part.setZoom(renderingTask.zoom);
+        return part;
+    }
+
+    /**
+     * Upload a rendered bitmap to graphics memory when the view can draw it from there, the
+     * software bitmap goes back to the pool for the next render
+     */
+    private Bitmap toHardwareBitmap(Bitmap render) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || !pdfView.useHardwareBitmaps()) {
+            return render;
+        }
+        Bitmap hardware = render.copy(Bitmap.Config.HARDWARE, false);
+        if (hardware == null) {
+            return render;
+        }
+        pdfView.bitmapPool.release(render);
+        return hardware;
     }
 
     private void calculateBounds(int width, int height, RectF pageSliceBounds) {
@@ -130,7 +207,7 @@ class RenderingHandler extends Handler {
         return requestCount;
     }
 
-    private class RenderingTask {
+    static class RenderingTask {
 
         public float width, height;
 
@@ -146,6 +223,33 @@ class RenderingHandler extends Handler {
 
         public boolean annotationRendering;
 
+        /**
+         * Bounds of the part in the document at {@link #boundsZoom}
+         */
+        final RectF documentBounds = new RectF();
+
+        float boundsZoom;
+
+        int zoomGeneration;
+
+        /**
+         * Zoom of the view when the task was requested
+         */
+        float zoom;
+
+        float distance;
+
+        long sequence;
+
+        int yieldCount;
+
+        /**
+         * Requested ahead of a fling, see {@link RenderingPool#setPrefetchTarget}
+         */
+        boolean prefetch;
+
+        int prefetchGeneration;
+
         RenderingTask(float width, float height, RectF bounds, int page, boolean thumbnail, int cacheOrder, boolean bestQuality, boolean annotationRendering) {
             this.page = page;
             this.width = width;
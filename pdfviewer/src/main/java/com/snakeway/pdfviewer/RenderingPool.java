@@ -0,0 +1,510 @@
+package com.snakeway.pdfviewer;
+
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.HandlerThread;
+import android.util.SparseArray;
+
+import com.snakeway.pdflibrary.util.SizeF;
+import com.snakeway.pdfviewer.util.Util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static com.snakeway.pdfviewer.util.Constants.PRELOAD_OFFSET;
+
+/**
+ * A bounded set of {@link RenderingHandler} workers, each one on its own {@link HandlerThread}.
+ * Pdfium calls are serialized on one lock since the library is not thread safe, so only one worker
+ * renders at a time. Bitmap allocation, disk cache reads and writes and uploads of the parts of a
+ * zoomed page overlap with the render of another worker.
+ * <p>
+ * Pending tasks are kept in one shared queue ordered by zoom generation and distance to the
+ * viewport, workers always take the most useful task first. The distances are computed again when a
+ * task is taken after the view moved, tasks requested for an outdated zoom or for a part which left
+ * the viewport are dropped before any bitmap is allocated.
+ * <p>
+ * During a fling, parts around the position where it ends are requested as prefetch tasks. They
+ * come after every task of the viewport and are dropped as soon as the view moves against the
+ * fling or the fling is cancelled.
+ */
+class RenderingPool {
+
+    static final int MAX_DEFAULT_SIZE = 2;
+
+    /**
+     * How many times a task may give way to visible tasks before it renders to the end
+     */
+    private static final int MAX_YIELD_COUNT = 2;
+
+    private final HandlerThread[] threads;
+
+    private final RenderingHandler[] handlers;
+
+    private int nextWorker = 0;
+
+    private PDFView pdfView;
+
+    private final PriorityQueue<RenderingHandler.RenderingTask> tasks = new PriorityQueue<>(64, new TaskComparator());
+
+    /**
+     * Incremented each time the zoom changes, tasks of older generations are outdated
+     */
+    private int zoomGeneration = 0;
+
+    private float viewportZoom = -1;
+
+    private final RectF viewport = new RectF();
+
+    /**
+     * Viewport where the current fling ends, empty when there is none
+     */
+    private final RectF prefetchViewport = new RectF();
+
+    /**
+     * Incremented each time the fling target changes or is cancelled, prefetch tasks of older generations are outdated
+     */
+    private int prefetchGeneration = 0;
+
+    private float preloadOffset;
+
+    /**
+     * Incremented each time the viewport or the fling target moves
+     */
+    private int viewportVersion = 0;
+
+    /**
+     * Viewport version the distances of the pending tasks were computed for
+     */
+    private int scoredViewportVersion = 0;
+
+    /**
+     * Reused to rebuild the queue when the distances change
+     */
+    private final ArrayList<RenderingHandler.RenderingTask> scoredTasks = new ArrayList<>();
+
+    private long sequence = 0;
+
+    private long droppedTaskCount = 0;
+
+    private long renderedTaskCount = 0;
+
+    /**
+     * Total render time and rendered tile count per page
+     */
+    private final SparseArray<long[]> pageRenderTimes = new SparseArray<>();
+
+    private final PartSizePolicy partSizePolicy = new PartSizePolicy();
+
+    RenderingPool(int size) {
+        threads = new HandlerThread[size];
+        handlers = new RenderingHandler[size];
+        for (int i = 0; i < size; i++) {
+            threads[i] = new HandlerThread("PDF renderer " + i);
+        }
+    }
+
+    /**
+     * Pool size used when none is configured. One worker renders while a second one does the work
+     * outside pdfium, more workers would only wait for the lock.
+     */
+    static int getDefaultSize() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores - 1, MAX_DEFAULT_SIZE));
+    }
+
+    int getSize() {
+        return threads.length;
+    }
+
+    void start(PDFView pdfView) {
+        this.pdfView = pdfView;
+        this.preloadOffset = Util.getDP(pdfView.getContext(), PRELOAD_OFFSET);
+        for (int i = 0; i < threads.length; i++) {
+            if (!threads[i].isAlive()) {
+                threads[i].start();
+            }
+            handlers[i] = new RenderingHandler(threads[i].getLooper(), pdfView, this);
+            handlers[i].start();
+        }
+    }
+
+    boolean isStarted() {
+        return handlers[0] != null;
+    }
+
+    /**
+     * Record the visible part of the document, must be called on the UI thread whenever the view moves or zooms
+     */
+    void updateViewport(float xOffset, float yOffset, float width, float height, float zoom) {
+        synchronized (tasks) {
+            boolean zoomChanged = zoom != viewportZoom;
+            if (zoomChanged) {
+                viewportZoom = zoom;
+                zoomGeneration++;
+            }
+            if (!prefetchViewport.isEmpty()
+                    && (zoomChanged || isAgainstPrefetch(-xOffset - viewport.left, -yOffset - viewport.top))) {
+                cancelPrefetchLocked();
+            }
+            viewport.set(-xOffset, -yOffset, -xOffset + width, -yOffset + height);
+            viewportVersion++;
+        }
+    }
+
+    void addRenderingTask(int page, float width, float height, RectF bounds, boolean thumbnail, int cacheOrder, boolean bestQuality, boolean annotationRendering) {
+        addRenderingTask(page, width, height, bounds, thumbnail, cacheOrder, bestQuality, annotationRendering, false);
+    }
+
+    /**
+     * Request a part around the fling target, rendered once every task of the viewport is done
+     */
+    void addPrefetchTask(int page, float width, float height, RectF bounds, boolean thumbnail, int cacheOrder, boolean bestQuality, boolean annotationRendering) {
+        addRenderingTask(page, width, height, bounds, thumbnail, cacheOrder, bestQuality, annotationRendering, true);
+    }
+
+    private void addRenderingTask(int page, float width, float height, RectF bounds, boolean thumbnail, int cacheOrder, boolean bestQuality, boolean annotationRendering, boolean prefetch) {
+        RenderingHandler handler = handlers[nextWorker];
+        nextWorker = (nextWorker + 1) % handlers.length;
+        if (handler == null) {
+            return;
+        }
+        RenderingHandler.RenderingTask task = new RenderingHandler.RenderingTask(width, height, bounds, page, thumbnail, cacheOrder, bestQuality, annotationRendering);
+        calculateDocumentBounds(task);
+        synchronized (tasks) {
+            if (prefetch && prefetchViewport.isEmpty()) {
+                return;
+            }
+            task.zoomGeneration = zoomGeneration;
+            task.zoom = viewportZoom;
+            task.sequence = sequence++;
+            task.prefetch = prefetch;
+            task.prefetchGeneration = prefetchGeneration;
+            task.distance = distance(prefetch ? prefetchViewport : viewport, task.documentBounds);
+            tasks.offer(task);
+        }
+        handler.sendEmptyMessage(RenderingHandler.MSG_RENDER_TASK);
+    }
+
+    /**
+     * Take the most useful pending task, dropping the outdated ones on the way
+     *
+     * @return the task to render or null if there is nothing left to do
+     */
+    RenderingHandler.RenderingTask pollRenderingTask() {
+        synchronized (tasks) {
+            if (scoredViewportVersion != viewportVersion) {
+                rescoreTasksLocked();
+            }
+            RenderingHandler.RenderingTask task;
+            while ((task = tasks.poll()) != null) {
+                if (isStale(task)) {
+                    droppedTaskCount++;
+                    continue;
+                }
+                return task;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compute the distance of the pending tasks to the current viewport again and drop the stale
+     * ones, the queue order is only valid for the distances the tasks were added with
+     */
+    private void rescoreTasksLocked() {
+        scoredViewportVersion = viewportVersion;
+        for (RenderingHandler.RenderingTask task : tasks) {
+            if (isStale(task)) {
+                droppedTaskCount++;
+                continue;
+            }
+            task.distance = distance(task.prefetch ? prefetchViewport : viewport, task.documentBounds);
+            scoredTasks.add(task);
+        }
+        tasks.clear();
+        tasks.addAll(scoredTasks);
+        scoredTasks.clear();
+    }
+
+    /**
+     * Checked while a task renders progressively
+     *
+     * @return true if the task became stale or should give way to a visible task waiting in the queue
+     */
+    boolean shouldAbort(RenderingHandler.RenderingTask task) {
+        synchronized (tasks) {
+            if (isStale(task)) {
+                return true;
+            }
+            if (task.yieldCount >= MAX_YIELD_COUNT || distanceToViewport(task.documentBounds) == 0) {
+                return false;
+            }
+            RenderingHandler.RenderingTask next = tasks.peek();
+            return next != null && next.zoomGeneration == zoomGeneration
+                    && distanceToViewport(next.documentBounds) == 0;
+        }
+    }
+
+    /**
+     * Handle a task whose render was aborted, it goes back to the queue unless it is stale
+     */
+    void onTaskAborted(RenderingHandler handler, RenderingHandler.RenderingTask task) {
+        synchronized (tasks) {
+            if (isStale(task)) {
+                droppedTaskCount++;
+                return;
+            }
+            task.yieldCount++;
+            tasks.offer(task);
+        }
+        handler.sendEmptyMessage(RenderingHandler.MSG_RENDER_TASK);
+    }
+
+    /**
+     * Record where the current fling ends, must be called on the UI thread
+     *
+     * @param xOffset the x offset of the view at the end of the fling
+     * @param yOffset the y offset of the view at the end of the fling
+     */
+    void setPrefetchTarget(float xOffset, float yOffset) {
+        synchronized (tasks) {
+            prefetchViewport.set(-xOffset, -yOffset, -xOffset + viewport.width(), -yOffset + viewport.height());
+            prefetchGeneration++;
+            viewportVersion++;
+        }
+    }
+
+    /**
+     * Get the viewport where the current fling ends
+     *
+     * @return false if there is no fling to prefetch for
+     */
+    boolean getPrefetchViewport(RectF out) {
+        synchronized (tasks) {
+            if (prefetchViewport.isEmpty()) {
+                return false;
+            }
+            out.set(prefetchViewport);
+            return true;
+        }
+    }
+
+    /**
+     * Forget the fling target and drop its pending tasks
+     */
+    void cancelPrefetch() {
+        synchronized (tasks) {
+            cancelPrefetchLocked();
+        }
+    }
+
+    private void cancelPrefetchLocked() {
+        prefetchViewport.setEmpty();
+        prefetchGeneration++;
+        Iterator<RenderingHandler.RenderingTask> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().prefetch) {
+                iterator.remove();
+                droppedTaskCount++;
+            }
+        }
+    }
+
+    /**
+     * A move is against the fling when it goes away from the fling target
+     */
+    private boolean isAgainstPrefetch(float dx, float dy) {
+        float directionX = prefetchViewport.left - viewport.left;
+        float directionY = prefetchViewport.top - viewport.top;
+        return dx * directionX + dy * directionY < 0;
+    }
+
+    /**
+     * Record the render time of a part rendered by pdfium, parts read from the disk cache are not
+     * counted so they do not lower the measured cost of a page
+     */
+    void onTaskRendered(int page, long renderTime) {
+        synchronized (tasks) {
+            renderedTaskCount++;
+            long[] pageRenderTime = pageRenderTimes.get(page);
+            if (pageRenderTime == null) {
+                pageRenderTime = new long[2];
+                pageRenderTimes.put(page, pageRenderTime);
+            }
+            pageRenderTime[0] += renderTime;
+            pageRenderTime[1]++;
+        }
+    }
+
+    PartSizePolicy getPartSizePolicy() {
+        return partSizePolicy;
+    }
+
+    /**
+     * Average render time of the tiles of a page in milliseconds, -1 if none was rendered yet
+     */
+    long getAverageRenderTime(int page) {
+        synchronized (tasks) {
+            long[] pageRenderTime = pageRenderTimes.get(page);
+            return pageRenderTime == null ? -1 : pageRenderTime[0] / pageRenderTime[1];
+        }
+    }
+
+    long getDroppedTaskCount() {
+        synchronized (tasks) {
+            return droppedTaskCount;
+        }
+    }
+
+    long getRenderedTaskCount() {
+        synchronized (tasks) {
+            return renderedTaskCount;
+        }
+    }
+
+    /**
+     * Drop rendering tasks which have not started yet
+     */
+    void removeRenderingTasks() {
+        synchronized (tasks) {
+            tasks.clear();
+        }
+        for (RenderingHandler handler : handlers) {
+            if (handler != null) {
+                handler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+            }
+        }
+    }
+
+    /**
+     * Stop all workers and wait for the tasks in progress to finish. A stopped worker aborts its
+     * render at the next pause check, then runs a message posted at the front of its queue.
+     */
+    void stop() {
+        for (RenderingHandler handler : handlers) {
+            if (handler != null) {
+                handler.stop();
+            }
+        }
+        removeRenderingTasks();
+        final CountDownLatch stopped = new CountDownLatch(handlers.length);
+        Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                stopped.countDown();
+            }
+        };
+        for (RenderingHandler handler : handlers) {
+            // Nothing runs on a handler which was not started or whose thread quit
+            if (handler == null || !handler.postAtFrontOfQueue(countDown)) {
+                stopped.countDown();
+            }
+        }
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = null;
+        }
+    }
+
+    void quit() {
+        for (HandlerThread thread : threads) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                thread.quitSafely();
+            } else {
+                thread.quit();
+            }
+        }
+    }
+
+    /**
+     * Bounds of the task in the document, at the current zoom
+     */
+    private void calculateDocumentBounds(RenderingHandler.RenderingTask task) {
+        PdfFile pdfFile = pdfView.pdfFile;
+        if (pdfFile == null) {
+            return;
+        }
+        float zoom = pdfView.getZoom();
+        task.boundsZoom = zoom;
+        float pageOffset = pdfFile.getPageOffset(task.page, zoom);
+        float secondaryOffset = pdfFile.getSecondaryPageOffset(task.page, zoom);
+        SizeF pageSize = pdfFile.getScaledPageSize(task.page, zoom);
+        float left = pdfView.isSwipeVertical() ? secondaryOffset : pageOffset;
+        float top = pdfView.isSwipeVertical() ? pageOffset : secondaryOffset;
+        task.documentBounds.set(left + task.bounds.left * pageSize.getWidth(),
+                top + task.bounds.top * pageSize.getHeight(),
+                left + task.bounds.right * pageSize.getWidth(),
+                top + task.bounds.bottom * pageSize.getHeight());
+    }
+
+    private float distanceToViewport(RectF bounds) {
+        return distance(viewport, bounds);
+    }
+
+    private static float distance(RectF area, RectF bounds) {
+        float dx = Math.max(0, Math.max(area.left - bounds.right, bounds.left - area.right));
+        float dy = Math.max(0, Math.max(area.top - bounds.bottom, bounds.top - area.bottom));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Scale the document bounds of a task to the zoom of the viewport, document coordinates are
+     * proportional to the zoom
+     */
+    private void scaleToViewportZoom(RenderingHandler.RenderingTask task) {
+        if (task.boundsZoom == viewportZoom || task.boundsZoom <= 0 || viewportZoom <= 0) {
+            return;
+        }
+        float scale = viewportZoom / task.boundsZoom;
+        RectF bounds = task.documentBounds;
+        bounds.set(bounds.left * scale, bounds.top * scale, bounds.right * scale, bounds.bottom * scale);
+        task.boundsZoom = viewportZoom;
+    }
+
+    /**
+     * A part is stale when it was requested for another zoom or is no longer near the viewport,
+     * thumbnails do not depend on the zoom and are dropped when off screen at the current zoom. A
+     * prefetch task is stale when its fling was cancelled or replaced.
+     */
+    private boolean isStale(RenderingHandler.RenderingTask task) {
+        if (task.zoomGeneration != zoomGeneration && !task.thumbnail) {
+            return true;
+        }
+        scaleToViewportZoom(task);
+        if (task.prefetch) {
+            return task.prefetchGeneration != prefetchGeneration;
+        }
+        return task.documentBounds.right < viewport.left - preloadOffset
+                || task.documentBounds.left > viewport.right + preloadOffset
+                || task.documentBounds.bottom < viewport.top - preloadOffset
+                || task.documentBounds.top > viewport.bottom + preloadOffset;
+    }
+
+    private static class TaskComparator implements Comparator<RenderingHandler.RenderingTask> {
+
+        @Override
+        public int compare(RenderingHandler.RenderingTask a, RenderingHandler.RenderingTask b) {
+            if (a.zoomGeneration != b.zoomGeneration) {
+                return a.zoomGeneration > b.zoomGeneration ? -1 : 1;
+            }
+            if (a.prefetch != b.prefetch) {
+                return a.prefetch ? 1 : -1;
+            }
+            if (a.thumbnail != b.thumbnail) {
+                return a.thumbnail ? -1 : 1;
+            }
+            if (a.distance != b.distance) {
+                return Float.compare(a.distance, b.distance);
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    }
+}
@@ -2,124 +2,283 @@ package com.snakeway.pdfviewer;
 
 import android.graphics.RectF;
 import android.os.AsyncTask;
+import android.util.Log;
 
-import com.snakeway.pdflibrary.PdfiumCore;
+import com.snakeway.pdfviewer.listener.OnSearchTextErrorListener;
 import com.snakeway.pdfviewer.listener.OnSearchTextListener;
+import com.snakeway.pdfviewer.listener.OnSearchTextResultsListener;
 import com.snakeway.pdfviewer.model.SearchTextInfo;
-import com.snakeway.pdfviewer.util.UnicodeUtil;
+import com.snakeway.pdfviewer.util.ArrayUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
-class SearchTextAsyncTask extends AsyncTask<Void, Void, SearchTextInfo> {
+/**
+ * Searches pages in the given order and returns the first match, or in find all mode publishes
+ * every match page by page through {@link OnSearchTextResultsListener}.
+ * <p>
+ * Pages are shared between search workers while this task collects their results in page order.
+ * Reading the text of a page is serialized with every other pdfium call, so the workers only
+ * match the text of their pages in parallel, while another one reads. The first match stops the
+ * workers, as does cancelling the task. A page which cannot be read stops the search too, the
+ * failure is reported through {@link OnSearchTextErrorListener} instead of a missing match.
+ */
+class SearchTextAsyncTask extends AsyncTask<Void, SearchTextAsyncTask.PageResults, SearchTextInfo> {
 
-    private PdfiumCore pdfiumCore;
-    private String searchText;
+    private static final String TAG = SearchTextAsyncTask.class.getSimpleName();
+
+    static final int MAX_WORKER_COUNT = 4;
+
+    private static final Object NO_MATCH = new Object();
+
+    private static final Object CLOSED = new Object();
+
+    private static final ExecutorService SEARCH_EXECUTOR = createExecutor();
+
+    private PdfFile pdfFile;
+    private TextIndex textIndex;
+    private TextMatcher matcher;
     private List<Integer> pageIndexs;
-    private List<Long> textPagesPtrs;
     private OnSearchTextListener onSearchTextListener;
+    private final boolean findAll;
+    private int totalCount = 0;
+    private boolean resultReported = false;
+    private PageFailure failure;
 
 
-    SearchTextAsyncTask(PdfiumCore pdfiumCore, String searchText, List<Integer> pageIndexs, List<Long> textPagesPtrs, OnSearchTextListener onSearchTextListener) {
-        this.pdfiumCore = pdfiumCore;
-        this.searchText = searchText;
+    /**
+     * @param textIndex index of the document, pages whose text it does not keep are read from the document, may be null
+     * @param matcher   the query with its search modes
+     * @param findAll   search every page to the end instead of stopping at the first match
+     */
+    SearchTextAsyncTask(PdfFile pdfFile, TextIndex textIndex, TextMatcher matcher, List<Integer> pageIndexs, OnSearchTextListener onSearchTextListener, boolean findAll) {
+        this.pdfFile = pdfFile;
+        this.textIndex = textIndex;
+        this.matcher = matcher;
         this.pageIndexs = pageIndexs;
-        this.textPagesPtrs = textPagesPtrs;
         this.onSearchTextListener = onSearchTextListener;
+        this.findAll = findAll;
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WORKER_COUNT, MAX_WORKER_COUNT, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "PDF search");
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Worker count used for a search, one per core to match text, at most {@link #MAX_WORKER_COUNT}
+     */
+    static int getWorkerCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKER_COUNT));
     }
 
     @Override
     protected SearchTextInfo doInBackground(Void... params) {
-        if (pdfiumCore == null || searchText == null) {
+        if (pdfFile == null || matcher == null || matcher.isEmpty() || pageIndexs == null) {
             return null;
         }
-        if (pageIndexs == null || textPagesPtrs == null || (pageIndexs.size() != textPagesPtrs.size())) {
+        String literalQuery = matcher.getLiteralQuery();
+        int[] candidatePages = literalQuery != null && textIndex != null && textIndex.isComplete() ? textIndex.getCandidatePages(literalQuery) : null;
+        List<Integer> pages = new ArrayList<>(pageIndexs.size());
+        for (int pageIndex : pageIndexs) {
+            int docPage = pdfFile.documentPage(pageIndex);
+            if (docPage >= 0 && (candidatePages == null || Arrays.binarySearch(candidatePages, docPage) >= 0)) {
+                pages.add(pageIndex);
+            }
+        }
+        if (pages.isEmpty()) {
             return null;
         }
-        for (int i = 0; i < pageIndexs.size(); i++) {
-            int pageIndex = pageIndexs.get(i);
-            long textPagesPtr = textPagesPtrs.get(i);
-            int count = pdfiumCore.getPageTextCount(textPagesPtr);
-            if (count > 0) {
-                SearchTextInfo searchTextInfo = searchText(textPagesPtr, count, searchText);
+        PageSearch pageSearch = new PageSearch(pages, matcher);
+        int workerCount = Math.min(getWorkerCount(), pages.size());
+        for (int i = 0; i < workerCount; i++) {
+            SEARCH_EXECUTOR.execute(pageSearch.newWorker());
+        }
+        try {
+            for (int position = 0; position < pages.size(); position++) {
+                Object result = pageSearch.awaitResult(position);
+                if (result == CLOSED) {
+                    return null;
+                }
+                if (result instanceof PageFailure) {
+                    failure = (PageFailure) result;
+                    return null;
+                }
+                if (result == NO_MATCH) {
+                    continue;
+                }
+                int pageIndex = pages.get(position);
+                if (findAll) {
+                    @SuppressWarnings("unchecked")
+                    List<SearchTextInfo> results = (List<SearchTextInfo>) result;
+                    publishProgress(new PageResults(pageIndex, results));
+                    continue;
+                }
+                int[] match = (int[]) result;
+                SearchTextInfo searchTextInfo;
+                try {
+                    searchTextInfo = getSearchTextInfo(pageIndex, match[0], match[1]);
+                } catch (Throwable e) {
+                    failure = new PageFailure(pageIndex, e);
+                    return null;
+                }
                 if (searchTextInfo != null) {
                     searchTextInfo.setPage(pageIndex);
                     return searchTextInfo;
                 }
             }
+            return null;
+        } catch (InterruptedException e) {
+            return null;
+        } finally {
+            pageSearch.stop();
         }
-        return null;
     }
 
-    private SearchTextInfo searchText(long textPagesPtr, int count, String searchText) {
-        if (searchText == null || searchText.length() == 0) {
-            return null;
+    /**
+     * Search one page on a worker thread
+     *
+     * @return the first match, or every match in find all mode, {@link #NO_MATCH} or {@link #CLOSED}
+     */
+    private Object searchPage(int pageIndex, TextMatcher matcher) {
+        int docPage = pdfFile.documentPage(pageIndex);
+        char[] text = readPageText(docPage);
+        if (text == null) {
+            return CLOSED;
         }
-        boolean findSuccess = false;
-        int start = 0;
-        int end = 0;
-        for (int i = 0; i < count; i++) {
-            int[] res = doSearchText(textPagesPtr, searchText, i, count);
-            if (res != null) {
-                findSuccess = true;
-                start = res[0];
-                end = res[1];
-                break;
+        if (findAll) {
+            List<SearchTextInfo> results = searchAllText(pageIndex, docPage, text, matcher);
+            if (results == null) {
+                return CLOSED;
             }
+            return results.isEmpty() ? NO_MATCH : results;
+        }
+        int[] match = matcher.find(text);
+        return match != null ? match : NO_MATCH;
+    }
+
+    /**
+     * @return the text of the page from the index or the document, null if the document was closed
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    private char[] readPageText(int docPage) {
+        if (textIndex == null) {
+            return pdfFile.extractPageText(docPage);
+        }
+        char[] text = textIndex.getPageText(docPage);
+        if (text != null) {
+            return text;
         }
-        if (!findSuccess) {
+        text = pdfFile.extractPageText(docPage);
+        if (text != null) {
+            textIndex.putPageText(docPage, text);
+        }
+        return text;
+    }
+
+    /**
+     * Find every match of the page, the line rects of all of them are read in one native call
+     *
+     * @return the matches in text order, or null if the document was closed
+     * @throws IllegalStateException if the page cannot be loaded
+     */
+    private List<SearchTextInfo> searchAllText(int pageIndex, int docPage, char[] text, TextMatcher matcher) {
+        List<int[]> matches = matcher.findAll(text);
+        List<SearchTextInfo> results = new ArrayList<>(matches.size());
+        if (matches.isEmpty()) {
+            return results;
+        }
+        int[] ranges = new int[matches.size() * 2];
+        for (int i = 0; i < matches.size(); i++) {
+            int[] match = matches.get(i);
+            ranges[i * 2] = match[0];
+            ranges[i * 2 + 1] = match[1] - match[0] + 1;
+        }
+        float[] rects = pdfFile.extractTextLineRects(docPage, ranges);
+        if (rects == null) {
             return null;
         }
-        List<RectF> areaRects = new ArrayList<>();
-        for (int i = start; i <= end; i++) {
-            areaRects.add(pdfiumCore.getTextRect(textPagesPtr, i));
+        List<ArrayList<RectF>> lineRects = ArrayUtils.toRectGroups(rects, matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            int[] match = matches.get(i);
+            SearchTextInfo searchTextInfo = new SearchTextInfo(match[0], match[1], lineRects.get(i));
+            searchTextInfo.setPage(pageIndex);
+            results.add(searchTextInfo);
         }
-        SearchTextInfo searchTextInfo = new SearchTextInfo(start, end, areaRects);
-        return searchTextInfo;
+        return results;
     }
 
-    private int[] doSearchText(long textPagesPtr, String searchText, int start, int end) {
-        int[] result = null;
-        int nextCheckIndex = 0;
-        StringBuilder append = new StringBuilder();
-        int findStart = 0;
-        int findCount = 0;
-        for (int i = start; i < end; i++) {
-            int unicode = pdfiumCore.searchTextUnicode(textPagesPtr, i);
-            if (unicode <= 0) {
-                continue;
-            }
-            String targetChar = String.valueOf(searchText.charAt(nextCheckIndex));
-            String unicodeString = UnicodeUtil.convertUnicode(unicode);
-            String code = UnicodeUtil.unicodeToString(unicodeString);
-            if (!code.equals(targetChar)) {
-                if (!append.toString().equals("") && (unicodeString.equals("\\u000d") || unicodeString.equals("\\u000a"))) {
-                    findCount++;
-                    continue;
-                }
-                break;
-            }
-            if (append.toString().equals("")) {
-                findStart = i;
+    /**
+     * Open the page of the match so it can be selected, and read the line rects of the match in one native call
+     *
+     * @return null if the page cannot be opened or the document was closed
+     */
+    private SearchTextInfo getSearchTextInfo(int pageIndex, int start, int end) {
+        float[] rects = pdfFile.openTextLineRects(pageIndex, start, end - start + 1);
+        if (rects == null) {
+            return null;
+        }
+        List<RectF> areaRects = ArrayUtils.toRects(rects);
+        return new SearchTextInfo(start, end, areaRects);
+    }
+
+    @Override
+    protected void onProgressUpdate(PageResults... pageResults) {
+        if (onSearchTextListener == null || isCancelled()) {
+            return;
+        }
+        for (PageResults results : pageResults) {
+            totalCount += results.results.size();
+            if (onSearchTextListener instanceof OnSearchTextResultsListener) {
+                ((OnSearchTextResultsListener) onSearchTextListener).onPageResults(results.page, results.results);
             }
-            append.append(code);
-            if (append.toString().equals(searchText)) {
-                result = new int[2];
-                result[0] = findStart;
-                result[1] = findStart + findCount;
-                break;
+            if (!resultReported) {
+                resultReported = true;
+                onSearchTextListener.onResult(results.results.get(0));
             }
-            findCount++;
-            nextCheckIndex++;
         }
-        return result;
     }
 
     @Override
     protected void onPostExecute(SearchTextInfo searchTextInfo) {
-        if (onSearchTextListener != null) {
+        if (failure != null) {
+            Log.e(TAG, "Cannot search page " + failure.page, failure.error);
+        }
+        if (onSearchTextListener == null) {
+            return;
+        }
+        if (failure != null) {
+            if (onSearchTextListener instanceof OnSearchTextErrorListener) {
+                ((OnSearchTextErrorListener) onSearchTextListener).onError(failure.page, failure.error);
+            } else {
+                onSearchTextListener.onCancel();
+            }
+            return;
+        }
+        if (!findAll) {
             onSearchTextListener.onResult(searchTextInfo);
+            return;
+        }
+        if (!resultReported) {
+            onSearchTextListener.onResult(null);
+        }
+        if (onSearchTextListener instanceof OnSearchTextResultsListener) {
+            ((OnSearchTextResultsListener) onSearchTextListener).onComplete(totalCount);
         }
     }
 
@@ -130,4 +289,86 @@ class SearchTextAsyncTask extends AsyncTask<Void, Void, SearchTextInfo> {
         }
     }
 
+    static class PageResults {
+        final int page;
+        final List<SearchTextInfo> results;
+
+        PageResults(int page, List<SearchTextInfo> results) {
+            this.page = page;
+            this.results = results;
+        }
+    }
+
+    /**
+     * Result of a page which could not be searched
+     */
+    private static class PageFailure {
+        final int page;
+        final Throwable error;
+
+        PageFailure(int page, Throwable error) {
+            this.page = page;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Pages of one search, handed to the workers in order so the first pages are done first
+     */
+    private class PageSearch {
+        private final List<Integer> pages;
+        private final TextMatcher matcher;
+        private final Object[] results;
+        private final AtomicInteger nextPosition = new AtomicInteger();
+        private volatile boolean stopped = false;
+
+        PageSearch(List<Integer> pages, TextMatcher matcher) {
+            this.pages = pages;
+            this.matcher = matcher;
+            this.results = new Object[pages.size()];
+        }
+
+        Runnable newWorker() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    int position;
+                    while (!stopped && (position = nextPosition.getAndIncrement()) < pages.size()) {
+                        Object result;
+                        try {
+                            result = searchPage(pages.get(position), matcher);
+                        } catch (Throwable e) {
+                            //Errors such as a missing native method would otherwise end the worker
+                            //without a result and leave the task waiting for it
+                            result = new PageFailure(pages.get(position), e);
+                            stopped = true;
+                        }
+                        synchronized (results) {
+                            results[position] = result;
+                            results.notifyAll();
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * Wait for the result of a page, checking regularly whether the task was cancelled
+         */
+        Object awaitResult(int position) throws InterruptedException {
+            synchronized (results) {
+                while (results[position] == null) {
+                    if (isCancelled()) {
+                        throw new InterruptedException();
+                    }
+                    results.wait(100);
+                }
+                return results[position];
+            }
+        }
+
+        void stop() {
+            stopped = true;
+        }
+    }
 }
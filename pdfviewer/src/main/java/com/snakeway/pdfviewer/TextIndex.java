@@ -0,0 +1,350 @@
+package com.snakeway.pdfviewer;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Inverted index of the trigrams of every page of a document, so a search only scans the pages
+ * which may contain the query.
+ * <p>
+ * Trigrams are read from the text of the page folded and without the chars {@link TextMatcher}
+ * skips, so any match of a query contains the trigrams of the query. Each trigram maps to the sorted
+ * pages containing it, the char offsets are then found by scanning the text of these pages. Only the
+ * text of the most recently used pages is kept, within a byte budget, the other pages are read again
+ * from the document. The index is filled by {@link TextIndexBuildTask} and its trigrams are saved
+ * under the document fingerprint.
+ */
+class TextIndex {
+
+    private static final String TAG = TextIndex.class.getName();
+
+    private static final String DIRECTORY_NAME = "pdfviewer_text";
+
+    private static final int MAGIC = 0x50445458;
+
+    private static final int VERSION = 3;
+
+    /**
+     * Trigrams are folded so one index serves searches with and without case and diacritics
+     */
+    private static final int FOLD_FLAGS = TextMatcher.IGNORE_CASE | TextMatcher.IGNORE_DIACRITICS;
+
+    private final int pageCount;
+
+    private final boolean[] indexedPages;
+
+    private int indexedPageCount = 0;
+
+    /**
+     * Kept page texts in access order
+     */
+    private final LinkedHashMap<Integer, char[]> pageTexts = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxTextBytes;
+
+    private long textBytes = 0;
+
+    private final HashMap<Long, Postings> trigrams = new HashMap<>();
+
+    /**
+     * Candidates of the last query, a longer query starting with it only needs to check them
+     */
+    private String lastQuery;
+
+    private int[] lastCandidates;
+
+    /**
+     * @param maxTextBytes bytes of page text the index may keep in memory
+     */
+    TextIndex(int pageCount, long maxTextBytes) {
+        this.pageCount = pageCount;
+        this.indexedPages = new boolean[pageCount];
+        this.maxTextBytes = maxTextBytes;
+    }
+
+    static File getDirectory(File cacheDir) {
+        return new File(cacheDir, DIRECTORY_NAME);
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    synchronized boolean isComplete() {
+        return indexedPageCount == pageCount;
+    }
+
+    /**
+     * @return the text of the document page, as {@link com.snakeway.pdflibrary.PdfiumCore#getPageText}
+     * returns it, or null if it is not kept
+     */
+    synchronized char[] getPageText(int page) {
+        return pageTexts.get(page);
+    }
+
+    /**
+     * Keep the text of a page read from the document, the least recently used texts beyond the
+     * budget are dropped
+     */
+    synchronized void putPageText(int page, char[] text) {
+        if (page < 0 || page >= pageCount || (long) text.length * 2 > maxTextBytes) {
+            return;
+        }
+        char[] previous = pageTexts.put(page, text);
+        if (previous != null) {
+            textBytes -= (long) previous.length * 2;
+        }
+        textBytes += (long) text.length * 2;
+        Iterator<char[]> iterator = pageTexts.values().iterator();
+        while (textBytes > maxTextBytes) {
+            textBytes -= (long) iterator.next().length * 2;
+            iterator.remove();
+        }
+    }
+
+    synchronized void addPage(int page, char[] text) {
+        if (page < 0 || page >= pageCount || indexedPages[page]) {
+            return;
+        }
+        indexedPages[page] = true;
+        indexedPageCount++;
+        putPageText(page, text);
+        lastQuery = null;
+        lastCandidates = null;
+        char first = 0;
+        char second = 0;
+        int length = 0;
+        for (char c : text) {
+            if (TextMatcher.isSkipped(c, FOLD_FLAGS)) {
+                continue;
+            }
+            c = TextMatcher.fold(c, FOLD_FLAGS);
+            if (++length >= 3) {
+                Long key = key(first, second, c);
+                Postings postings = trigrams.get(key);
+                if (postings == null) {
+                    postings = new Postings();
+                    trigrams.put(key, postings);
+                }
+                postings.add(page);
+            }
+            first = second;
+            second = c;
+        }
+    }
+
+    /**
+     * Pages which may contain the query, only meaningful once the index is complete
+     *
+     * @return sorted document pages, or null if the query cannot be filtered by the index
+     */
+    synchronized int[] getCandidatePages(String searchText) {
+        String query = new String(TextMatcher.normalize(searchText, FOLD_FLAGS));
+        if (query.length() < 3) {
+            return null;
+        }
+        if (query.equals(lastQuery)) {
+            return lastCandidates;
+        }
+        int[] candidates = lastQuery != null && query.startsWith(lastQuery) ? lastCandidates : null;
+        int candidateCount = candidates != null ? candidates.length : -1;
+        for (int i = 0; i + 3 <= query.length() && candidateCount != 0; i++) {
+            Postings postings = trigrams.get(key(query.charAt(i), query.charAt(i + 1), query.charAt(i + 2)));
+            if (postings == null) {
+                candidateCount = 0;
+                break;
+            }
+            if (candidates == null) {
+                candidates = Arrays.copyOf(postings.pages, postings.size);
+                candidateCount = postings.size;
+                continue;
+            }
+            int[] intersection = new int[Math.min(candidateCount, postings.size)];
+            int count = 0;
+            for (int a = 0, b = 0; a < candidateCount && b < postings.size; ) {
+                if (candidates[a] < postings.pages[b]) {
+                    a++;
+                } else if (candidates[a] > postings.pages[b]) {
+                    b++;
+                } else {
+                    intersection[count++] = candidates[a];
+                    a++;
+                    b++;
+                }
+            }
+            candidates = intersection;
+            candidateCount = count;
+        }
+        lastQuery = query;
+        lastCandidates = candidateCount <= 0 ? new int[0] : Arrays.copyOf(candidates, candidateCount);
+        return lastCandidates;
+    }
+
+    /**
+     * Fill the index from the file saved for the fingerprint
+     *
+     * @return true if the index is complete
+     */
+    boolean load(File directory, String fingerprint) {
+        File file = new File(directory, fingerprint);
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION || stream.readInt() != pageCount) {
+                file.delete();
+                return false;
+            }
+            int trigramCount = stream.readInt();
+            HashMap<Long, Postings> loadedTrigrams = new HashMap<>(trigramCount * 4 / 3 + 1);
+            for (int i = 0; i < trigramCount; i++) {
+                long key = stream.readLong();
+                Postings postings = new Postings(stream.readInt());
+                for (int j = 0; j < postings.pages.length; j++) {
+                    postings.pages[j] = stream.readInt();
+                }
+                postings.size = postings.pages.length;
+                loadedTrigrams.put(key, postings);
+            }
+            synchronized (this) {
+                Arrays.fill(indexedPages, true);
+                indexedPageCount = pageCount;
+                trigrams.clear();
+                trigrams.putAll(loadedTrigrams);
+                lastQuery = null;
+                lastCandidates = null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot read text index " + fingerprint, e);
+            file.delete();
+            return false;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the complete index under the fingerprint, keeping at most maxFileCount documents
+     */
+    synchronized void save(File directory, String fingerprint, int maxFileCount) {
+        if (!isComplete() || (!directory.exists() && !directory.mkdirs())) {
+            return;
+        }
+        File tmp = new File(directory, fingerprint + ".tmp");
+        DataOutputStream stream = null;
+        try {
+            stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(pageCount);
+            stream.writeInt(trigrams.size());
+            for (Map.Entry<Long, Postings> entry : trigrams.entrySet()) {
+                Postings postings = entry.getValue();
+                stream.writeLong(entry.getKey());
+                stream.writeInt(postings.size);
+                for (int i = 0; i < postings.size; i++) {
+                    stream.writeInt(postings.pages[i]);
+                }
+            }
+            stream.close();
+            stream = null;
+            if (!tmp.renameTo(new File(directory, fingerprint))) {
+                tmp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write text index " + fingerprint, e);
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            tmp.delete();
+            return;
+        }
+        trimDirectory(directory, maxFileCount);
+    }
+
+    private static void trimDirectory(File directory, int maxFileCount) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= maxFileCount) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long modified1 = file1.lastModified();
+                long modified2 = file2.lastModified();
+                return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - maxFileCount; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static Long key(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    /**
+     * Sorted pages containing a trigram
+     */
+    private static class Postings {
+        int[] pages;
+        int size = 0;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            pages = new int[capacity];
+        }
+
+        void add(int page) {
+            if (size > 0 && pages[size - 1] >= page) {
+                int index = Arrays.binarySearch(pages, 0, size, page);
+                if (index >= 0) {
+                    return;
+                }
+                insert(-index - 1, page);
+                return;
+            }
+            insert(size, page);
+        }
+
+        private void insert(int index, int page) {
+            if (size == pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(4, size * 2));
+            }
+            System.arraycopy(pages, index, pages, index + 1, size - index);
+            pages[index] = page;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.snakeway.pdfviewer;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.snakeway.pdfviewer.util.Constants;
+
+import java.io.File;
+
+/**
+ * Fills the {@link TextIndex} of a document in the background, from the file saved by a previous
+ * session when there is one, otherwise page by page. Cancelling stops the build between two pages,
+ * the pages indexed so far stay usable.
+ */
+class TextIndexBuildTask extends AsyncTask<Void, Void, Void> {
+
+    private static final String TAG = TextIndexBuildTask.class.getName();
+
+    private final PdfFile pdfFile;
+
+    private final TextIndex textIndex;
+
+    private final File directory;
+
+    TextIndexBuildTask(Context context, PdfFile pdfFile, TextIndex textIndex) {
+        this.pdfFile = pdfFile;
+        this.textIndex = textIndex;
+        this.directory = TextIndex.getDirectory(context.getCacheDir());
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        String fingerprint = pdfFile.getFingerprint();
+        if (fingerprint != null && textIndex.load(directory, fingerprint)) {
+            return null;
+        }
+        for (int page = 0; page < textIndex.getPageCount(); page++) {
+            if (isCancelled()) {
+                return null;
+            }
+            char[] text;
+            try {
+                text = pdfFile.extractPageText(page);
+            } catch (Throwable e) {
+                //Indexing the page as empty would hide its matches, the index stays incomplete
+                //instead and searches read the remaining pages from the document
+                Log.e(TAG, "Cannot read text of page " + page, e);
+                return null;
+            }
+            if (text == null) {
+                return null;
+            }
+            textIndex.addPage(page, text);
+        }
+        if (fingerprint != null && !isCancelled()) {
+            textIndex.save(directory, fingerprint, Constants.Cache.TEXT_INDEX_FILE_COUNT);
+        }
+        return null;
+    }
+}
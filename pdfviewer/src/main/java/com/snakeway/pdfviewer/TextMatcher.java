@@ -0,0 +1,286 @@
+package com.snakeway.pdfviewer;
+
+import java.nio.CharBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds a query in the text of a page in a single pass, with the Knuth-Morris-Pratt algorithm and
+ * without any allocation per char.
+ * <p>
+ * Chars without unicode and line breaks are skipped, so a query also finds words split across
+ * lines. Case and diacritics may be ignored, a match is then reported on the original chars.
+ * A query may also be a regular expression, run over the page text without the chars which have
+ * no unicode and with each line break as one '\n', and may have to match whole words.
+ */
+class TextMatcher {
+
+    static final int IGNORE_CASE = 1;
+
+    static final int IGNORE_DIACRITICS = 2;
+
+    static final int REGEX = 4;
+
+    static final int WHOLE_WORD = 8;
+
+    /**
+     * Char without diacritic of each char, 0 until computed
+     */
+    private static final char[] DIACRITIC_FOLDS = new char[Character.MAX_VALUE + 1];
+
+    private final String query;
+
+    private final int flags;
+
+    private final char[] pattern;
+
+    /**
+     * Compiled query in {@link #REGEX} mode, null otherwise
+     */
+    private final Pattern regex;
+
+    /**
+     * Length of the longest proper prefix of the pattern which is also a suffix, for each prefix length
+     */
+    private final int[] failure;
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException in {@link #REGEX} mode if the query is not a valid expression
+     */
+    TextMatcher(String query, int flags) {
+        this.query = query;
+        this.flags = flags;
+        if ((flags & REGEX) != 0) {
+            this.regex = compile(query, flags);
+            this.pattern = new char[0];
+            this.failure = new int[1];
+            return;
+        }
+        this.regex = null;
+        this.pattern = normalize(query, flags);
+        this.failure = new int[pattern.length + 1];
+        for (int i = 1, k = 0; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            failure[i + 1] = k;
+        }
+    }
+
+    private static Pattern compile(String query, int flags) {
+        String expression = query;
+        if ((flags & IGNORE_DIACRITICS) != 0) {
+            char[] chars = query.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = stripDiacritic(chars[i]);
+            }
+            expression = new String(chars);
+        }
+        if ((flags & WHOLE_WORD) != 0) {
+            expression = "(?<![\\p{L}\\p{N}])(?:" + expression + ")(?![\\p{L}\\p{N}])";
+        }
+        return Pattern.compile(expression, (flags & IGNORE_CASE) != 0 ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+    }
+
+    /**
+     * @return true if the query has no char which can be matched
+     */
+    boolean isEmpty() {
+        return regex == null ? pattern.length == 0 : query.length() == 0;
+    }
+
+    /**
+     * @return the query if it is a literal text the index can look up, null for an expression
+     */
+    String getLiteralQuery() {
+        return regex == null ? query : null;
+    }
+
+    /**
+     * Find the first match
+     *
+     * @return the first and last char index of the match in the text, or null
+     */
+    int[] find(char[] text) {
+        if (regex != null) {
+            List<int[]> matches = findRegex(text, true);
+            return matches.isEmpty() ? null : matches.get(0);
+        }
+        return findLiteral(text, 0);
+    }
+
+    /**
+     * Find every match, without overlaps
+     *
+     * @return the first and last char index of each match in text order
+     */
+    List<int[]> findAll(char[] text) {
+        if (regex != null) {
+            return findRegex(text, false);
+        }
+        List<int[]> matches = new ArrayList<>();
+        int[] match;
+        for (int from = 0; (match = findLiteral(text, from)) != null; from = match[1] + 1) {
+            matches.add(match);
+        }
+        return matches;
+    }
+
+    private int[] findLiteral(char[] text, int from) {
+        int[] match;
+        while ((match = findPattern(text, from)) != null) {
+            if ((flags & WHOLE_WORD) == 0 || isWholeWord(text, match[0], match[1])) {
+                return match;
+            }
+            from = match[0] + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Find the first match of the pattern starting at or after from
+     */
+    private int[] findPattern(char[] text, int from) {
+        int length = pattern.length;
+        if (length == 0) {
+            return null;
+        }
+        int[] positions = new int[length];
+        int matched = 0;
+        int streamIndex = 0;
+        for (int i = from; i < text.length; i++) {
+            char c = text[i];
+            if (isSkipped(c, flags)) {
+                continue;
+            }
+            c = fold(c, flags);
+            positions[streamIndex++ % length] = i;
+            while (matched > 0 && c != pattern[matched]) {
+                matched = failure[matched];
+            }
+            if (c == pattern[matched]) {
+                matched++;
+            }
+            if (matched == length) {
+                return new int[]{positions[(streamIndex - length) % length], i};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the expression over the text with skipped chars removed and line breaks as '\n',
+     * and map the matches back to the original chars
+     */
+    private List<int[]> findRegex(char[] text, boolean firstOnly) {
+        char[] stream = new char[text.length];
+        int[] positions = new int[text.length];
+        int length = 0;
+        for (int i = 0; i < text.length; i++) {
+            char c = text[i];
+            if (c == 0 || ((flags & IGNORE_DIACRITICS) != 0 && isCombiningDiacritic(c))
+                    || (c == '\r' && i + 1 < text.length && text[i + 1] == '\n')) {
+                continue;
+            }
+            stream[length] = c == '\r' ? '\n' : ((flags & IGNORE_DIACRITICS) != 0 ? stripDiacritic(c) : c);
+            positions[length++] = i;
+        }
+        List<int[]> matches = new ArrayList<>();
+        Matcher matcher = regex.matcher(CharBuffer.wrap(stream, 0, length));
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start()) {
+                matches.add(new int[]{positions[matcher.start()], positions[matcher.end() - 1]});
+                if (firstOnly) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The chars around the match, past the chars without unicode, must not be letters or digits
+     */
+    private boolean isWholeWord(char[] text, int start, int end) {
+        for (int i = start - 1; i >= 0; i--) {
+            char c = text[i];
+            if (c != 0 && !isCombiningDiacritic(c)) {
+                if (Character.isLetterOrDigit(c)) {
+                    return false;
+                }
+                break;
+            }
+        }
+        for (int i = end + 1; i < text.length; i++) {
+            char c = text[i];
+            if (c != 0 && !isCombiningDiacritic(c)) {
+                return !Character.isLetterOrDigit(c);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The query as it is compared, folded and without the skipped chars
+     */
+    static char[] normalize(String query, int flags) {
+        char[] chars = new char[query.length()];
+        int length = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (!isSkipped(c, flags)) {
+                chars[length++] = fold(c, flags);
+            }
+        }
+        if (length == chars.length) {
+            return chars;
+        }
+        char[] result = new char[length];
+        System.arraycopy(chars, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Chars without unicode, line breaks, and combining diacritics when they are ignored
+     */
+    static boolean isSkipped(char c, int flags) {
+        return c == 0 || c == '\r' || c == '\n'
+                || ((flags & IGNORE_DIACRITICS) != 0 && isCombiningDiacritic(c));
+    }
+
+    static char fold(char c, int flags) {
+        if ((flags & IGNORE_DIACRITICS) != 0) {
+            c = stripDiacritic(c);
+        }
+        if ((flags & IGNORE_CASE) != 0) {
+            c = Character.toLowerCase(Character.toUpperCase(c));
+        }
+        return c;
+    }
+
+    private static char stripDiacritic(char c) {
+        if (c < 0x80) {
+            return c;
+        }
+        char folded = DIACRITIC_FOLDS[c];
+        if (folded == 0) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            folded = decomposed.length() > 1 && !isCombiningDiacritic(decomposed.charAt(0))
+                    && isCombiningDiacritic(decomposed.charAt(1)) ? decomposed.charAt(0) : c;
+            DIACRITIC_FOLDS[c] = folded;
+        }
+        return folded;
+    }
+
+    private static boolean isCombiningDiacritic(char c) {
+        return (c >= 0x0300 && c <= 0x036F) || (c >= 0x1AB0 && c <= 0x1AFF)
+                || (c >= 0x1DC0 && c <= 0x1DFF) || (c >= 0x20D0 && c <= 0x20FF)
+                || (c >= 0xFE20 && c <= 0xFE2F);
+    }
+}
@@ -7,6 +7,7 @@ import android.graphics.RectF;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.util.Log;
 
 import com.snakeway.pdfviewer.model.WhiteSpaceInfo;
 import com.snakeway.pdfviewer.util.BitmapRemoveWhiteSpaceUtil;
@@ -16,6 +17,7 @@ import java.util.List;
 
 class WhiteSpaceInfoHandler extends Handler {
     static final int MSG_WHITE_SPACE_TASK = 1;
+    private static final String TAG = WhiteSpaceInfoHandler.class.getName();
     private PDFView pdfView;
     private RectF renderBounds = new RectF();
     private Rect roundedRenderBounds = new Rect();
@@ -104,30 +106,23 @@ class WhiteSpaceInfoHandler extends Handler {
                 continue;
             }
 
-            Bitmap render;
-            try {
-                render = Bitmap.createBitmap(w, h, isWhiteSpaceRenderBestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
-            } catch (IllegalArgumentException e) {
-                e.printStackTrace();
-                continue;
-            }
-            calculateBounds(w, h, pageInfo.bounds);
-
-            pdfFile.renderPageBitmap(render, pageInfo.page, roundedRenderBounds, true);
+            int width = w;
+            int height = h;
             float scale = 1;
-            int width = render.getWidth();
-            int height = render.getHeight();
             int horizontalMargin = 0;
             int verticalMargin = 0;
             try {
-                float theScale = BitmapRemoveWhiteSpaceUtil.removeUnUseWhiteSpaceScale(render, whiteSpaceInfoTask.bestQuality, true, 0.02f);
+                float theScale = getContentScale(pdfFile, pageInfo, w, h, isWhiteSpaceRenderBestQuality, whiteSpaceInfoTask.bestQuality);
+                if (theScale <= 0) {
+                    continue;
+                }
                 scale = 1 / theScale;
                 horizontalMargin = (int) ((width - width * theScale) / 2);
                 verticalMargin = (int) ((height - height * theScale) / 2);
                 width = (int) (width * theScale);
                 height = (int) (height * theScale);
             } catch (Exception e) {
-                e.printStackTrace();
+                Log.e(TAG, "Cannot measure the white space of page " + pageInfo.page, e);
             }
             WhiteSpaceInfo whiteSpaceInfo = new WhiteSpaceInfo(pageInfo.page, width, height, scale, horizontalMargin, verticalMargin, horizontalMargin, verticalMargin);
             pdfView.post(new Runnable() {
@@ -143,6 +138,44 @@ class WhiteSpaceInfoHandler extends Handler {
         return whiteSpaceInfos;
     }
 
+    /**
+     * Scale removing the white space of a page, from the text bounds of the page when they cover
+     * all its content, otherwise from a rendering of the page
+     *
+     * @return the scale, or 0 if the page cannot be rendered
+     */
+    private float getContentScale(PdfFile pdfFile, WhiteSpacePageInfo pageInfo, int w, int h,
+                                  boolean renderBestQuality, boolean bestQuality) {
+        RectF contentBounds = pdfFile.getPageContentBounds(pageInfo.page);
+        if (contentBounds != null) {
+            RectF slice = pageInfo.bounds;
+            float left = (contentBounds.left - slice.left) / slice.width();
+            float top = (contentBounds.top - slice.top) / slice.height();
+            float right = (contentBounds.right - slice.left) / slice.width();
+            float bottom = (contentBounds.bottom - slice.top) / slice.height();
+            int[] margins = contentBounds.isEmpty() ? null : new int[]{
+                    Math.max(0, (int) (top * h)),
+                    Math.max(0, w - (int) Math.ceil(right * w)),
+                    Math.max(0, h - (int) Math.ceil(bottom * h)),
+                    Math.max(0, (int) (left * w))};
+            return BitmapRemoveWhiteSpaceUtil.removeUnUseWhiteSpaceScale(w, h, margins, true, 0.02f);
+        }
+        Bitmap render;
+        try {
+            render = pdfView.bitmapPool.acquire(w, h, renderBestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Cannot allocate a bitmap of " + w + "x" + h, e);
+            return 0;
+        }
+        try {
+            calculateBounds(w, h, pageInfo.bounds);
+            pdfFile.renderPageBitmap(render, pageInfo.page, roundedRenderBounds, true);
+            return BitmapRemoveWhiteSpaceUtil.removeUnUseWhiteSpaceScale(render, bestQuality, true, 0.02f);
+        } finally {
+            pdfView.bitmapPool.release(render);
+        }
+    }
+
     private void calculateBounds(int width, int height, RectF pageSliceBounds) {
         renderMatrix.reset();
         renderMatrix.postTranslate(-pageSliceBounds.left * width, -pageSliceBounds.top * height);
@@ -0,0 +1,17 @@
+package com.snakeway.pdfviewer.listener;
+
+/**
+ * Told when a search stops because a page could not be searched, instead of the page being
+ * reported as having no match. Listeners without it get {@link #onCancel()} in that case.
+ */
+public interface OnSearchTextErrorListener extends OnSearchTextListener {
+
+    /**
+     * Called on the UI thread once, the search is over and no other result follows
+     *
+     * @param page  the page which could not be searched
+     * @param error why the text of the page could not be read
+     */
+    void onError(int page, Throwable error);
+
+}
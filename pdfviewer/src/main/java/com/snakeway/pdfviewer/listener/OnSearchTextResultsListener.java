@@ -0,0 +1,26 @@
+package com.snakeway.pdfviewer.listener;
+
+import com.snakeway.pdfviewer.model.SearchTextInfo;
+
+import java.util.List;
+
+/**
+ * Receives every match of a search page by page, as soon as each page is searched.
+ * {@link #onResult(SearchTextInfo)} is still called once, with the first match found or null,
+ * unless the search fails with {@link #onError(int, Throwable)}.
+ */
+public interface OnSearchTextResultsListener extends OnSearchTextErrorListener {
+
+    /**
+     * Called on the UI thread with the matches of one page, in text order
+     */
+    void onPageResults(int page, List<SearchTextInfo> results);
+
+    /**
+     * Called once every page was searched, not called when the search fails
+     *
+     * @param totalCount number of matches in the document
+     */
+    void onComplete(int totalCount);
+
+}
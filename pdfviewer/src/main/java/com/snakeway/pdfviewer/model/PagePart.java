@@ -15,6 +15,10 @@ public class PagePart {
 
     private int cacheOrder;
 
+    private long renderTime;
+
+    private float zoom;
+
     public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder) {
         super();
         this.page = page;
@@ -36,6 +40,10 @@ public class PagePart {
         return renderedBitmap;
     }
 
+    public void setRenderedBitmap(Bitmap renderedBitmap) {
+        this.renderedBitmap = renderedBitmap;
+    }
+
     public RectF getPageRelativeBounds() {
         return pageRelativeBounds;
     }
@@ -48,6 +56,28 @@ public class PagePart {
         this.cacheOrder = cacheOrder;
     }
 
+    /**
+     * Time spent by pdfium rendering this part, in milliseconds
+     */
+    public long getRenderTime() {
+        return renderTime;
+    }
+
+    public void setRenderTime(long renderTime) {
+        this.renderTime = renderTime;
+    }
+
+    /**
+     * Zoom of the view this part was rendered for
+     */
+    public float getZoom() {
+        return zoom;
+    }
+
+    public void setZoom(float zoom) {
+        this.zoom = zoom;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof PagePart)) {
@@ -1,5 +1,7 @@
 package com.snakeway.pdfviewer.util;
 
+import android.graphics.RectF;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -60,4 +62,34 @@ public class ArrayUtils {
         builder.append("]");
         return builder.toString();
     }
+
+    /**
+     * Transforms (left, top, right, bottom, left, top, ...) into a list of rects
+     */
+    public static ArrayList<RectF> toRects(float[] values) {
+        ArrayList<RectF> result = new ArrayList<>(values.length / 4);
+        for (int i = 0; i + 3 < values.length; i += 4) {
+            result.add(new RectF(values[i], values[i + 1], values[i + 2], values[i + 3]));
+        }
+        return result;
+    }
+
+    /**
+     * Split rects read for several ranges, each range being its rect count followed by 4 floats per rect
+     */
+    public static List<ArrayList<RectF>> toRectGroups(float[] values, int groupCount) {
+        List<ArrayList<RectF>> result = new ArrayList<>(groupCount);
+        int offset = 0;
+        for (int i = 0; i < groupCount; i++) {
+            int count = offset < values.length ? (int) values[offset++] : 0;
+            int end = Math.min(values.length, offset + count * 4);
+            ArrayList<RectF> rects = new ArrayList<>(count);
+            for (; offset + 3 < end; offset += 4) {
+                rects.add(new RectF(values[offset], values[offset + 1], values[offset + 2], values[offset + 3]));
+            }
+            offset = end;
+            result.add(rects);
+        }
+        return result;
+    }
 }
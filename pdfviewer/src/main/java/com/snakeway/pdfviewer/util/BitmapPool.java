@@ -0,0 +1,122 @@
+package com.snakeway.pdfviewer.util;
+
+import android.graphics.Bitmap;
+import android.util.LongSparseArray;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps released bitmaps by size and config so the rendering threads can reuse them instead of
+ * allocating a new native buffer for every tile. Bitmaps beyond the byte budget are recycled.
+ */
+public class BitmapPool {
+
+    private final LongSparseArray<ArrayDeque<Bitmap>> pool = new LongSparseArray<>();
+
+    private final long maxBytes;
+
+    private long currentBytes = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    /**
+     * @param maxSizeRatio part of the max heap the pool may keep, as in {@link BitmapMemoryCacheHelper}
+     */
+    public BitmapPool(int maxSizeRatio) {
+        this.maxBytes = Runtime.getRuntime().maxMemory() / maxSizeRatio;
+    }
+
+    /**
+     * Return a bitmap of the given size and config, reused when possible. The content of a reused
+     * bitmap is undefined, callers must draw over all of it.
+     *
+     * @throws IllegalArgumentException as {@link Bitmap#createBitmap(int, int, Bitmap.Config)}
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        long key = key(width, height, config);
+        synchronized (pool) {
+            ArrayDeque<Bitmap> bitmaps = pool.get(key);
+            while (bitmaps != null && !bitmaps.isEmpty()) {
+                Bitmap bitmap = bitmaps.poll();
+                currentBytes -= getByteCount(bitmap);
+                if (!bitmap.isRecycled()) {
+                    hitCount++;
+                    return bitmap;
+                }
+            }
+            missCount++;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Give back a bitmap nobody draws anymore
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() == null) {
+            bitmap.recycle();
+            return;
+        }
+        int byteCount = getByteCount(bitmap);
+        synchronized (pool) {
+            if (currentBytes + byteCount <= maxBytes) {
+                long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+                ArrayDeque<Bitmap> bitmaps = pool.get(key);
+                if (bitmaps == null) {
+                    bitmaps = new ArrayDeque<>();
+                    pool.put(key, bitmaps);
+                }
+                bitmaps.offer(bitmap);
+                currentBytes += byteCount;
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Recycle all the pooled bitmaps
+     */
+    public void clear() {
+        synchronized (pool) {
+            for (int i = 0; i < pool.size(); i++) {
+                for (Bitmap bitmap : pool.valueAt(i)) {
+                    bitmap.recycle();
+                }
+            }
+            pool.clear();
+            currentBytes = 0;
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (pool) {
+            return hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (pool) {
+            return missCount;
+        }
+    }
+
+    public long getCurrentBytes() {
+        synchronized (pool) {
+            return currentBytes;
+        }
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 36) | ((long) height << 8) | config.ordinal();
+    }
+}
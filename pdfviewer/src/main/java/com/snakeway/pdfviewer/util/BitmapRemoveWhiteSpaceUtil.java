@@ -2,15 +2,23 @@ package com.snakeway.pdfviewer.util;
 
 import android.graphics.Bitmap;
 
+import com.snakeway.pdflibrary.PdfiumCore;
+
 
 public class BitmapRemoveWhiteSpaceUtil {
     /**
      * 去除多余白框缩放比
      */
     public static float removeUnUseWhiteSpaceScale(Bitmap originBitmap, boolean bestQuality, boolean isWidth, float leavePercent) {
-        int width = originBitmap.getWidth();
-        int height = originBitmap.getHeight();
-        int[] margin = getRemoveWhiteSpaceMargin(originBitmap, bestQuality);
+        return removeUnUseWhiteSpaceScale(originBitmap.getWidth(), originBitmap.getHeight(),
+                PdfiumCore.getBitmapMargins(originBitmap), isWidth, leavePercent);
+    }
+
+    /**
+     * 根据内容边距计算去除多余白框缩放比,margins为上右下左的白边宽度,不需要渲染bitmap
+     */
+    public static float removeUnUseWhiteSpaceScale(int width, int height, int[] margins, boolean isWidth, float leavePercent) {
+        int[] margin = getRemoveWhiteSpaceMargin(width, height, margins);
         if (margin == null) {
             return 1;
         }
@@ -75,98 +83,26 @@ public class BitmapRemoveWhiteSpaceUtil {
         int cropHeight = height - verticalMargin;
 
         int[] newPix = new int[cropWidth * cropHeight];
-
-        int i = 0;
-        for (int h = top; h < top + cropHeight; h++) {
-            for (int w = left; w < left + cropWidth; w++) {
-                newPix[i++] = originBitmap.getPixel(w, h);
-            }
-        }
+        originBitmap.getPixels(newPix, 0, cropWidth, left, top, cropWidth, cropHeight);
         Bitmap newBitmap = Bitmap.createBitmap(newPix, cropWidth, cropHeight, bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
         return newBitmap;
     }
 
     public static int[] getRemoveWhiteSpaceMargin(Bitmap originBitmap, boolean bestQuality) {
-        int width = originBitmap.getWidth();
-        int height = originBitmap.getHeight();
-
-//        int[] imgThePixels = new int[width * height];
-//        originBitmap.getPixels(
-//                imgThePixels,
-//                0,
-//                width,
-//                0,
-//                0,
-//                width,
-//                height);
-//
-//        Bitmap bitmap = getGrayImg(
-//                width,
-//                height,
-//                imgThePixels);
-
-        int top = 0;
-        int left = 0;
-        int right = 0;
-        int bottom = 0;
-
-        for (int h = 0; h < height; h++) {
-            boolean holdBlackPix = false;
-            for (int w = 0; w < width; w++) {
-                if (originBitmap.getPixel(w, h) != -1) {
-                    holdBlackPix = true;
-                    break;
-                }
-            }
-
-            if (holdBlackPix) {
-                break;
-            }
-            top++;
-        }
-
-        for (int w = 0; w < width; w++) {
-            boolean holdBlackPix = false;
-            for (int h = 0; h < height; h++) {
-                if (originBitmap.getPixel(w, h) != -1) {
-                    holdBlackPix = true;
-                    break;
-                }
-            }
-            if (holdBlackPix) {
-                break;
-            }
-            left++;
-        }
-
-
-        for (int w = width - 1; w >= 0; w--) {
-            boolean holdBlackPix = false;
-            for (int h = 0; h < height; h++) {
-                if (originBitmap.getPixel(w, h) != -1) {
-                    holdBlackPix = true;
-                    break;
-                }
-            }
-            if (holdBlackPix) {
-                break;
-            }
-            right++;
-        }
+        return getRemoveWhiteSpaceMargin(originBitmap.getWidth(), originBitmap.getHeight(), PdfiumCore.getBitmapMargins(originBitmap));
+    }
 
-        for (int h = height - 1; h >= 0; h--) {
-            boolean holdBlackPix = false;
-            for (int w = 0; w < width; w++) {
-                if (originBitmap.getPixel(w, h) != -1) {
-                    holdBlackPix = true;
-                    break;
-                }
-            }
-            if (holdBlackPix) {
-                break;
-            }
-            bottom++;
+    /**
+     * 上下和左右白边取较小值,保持内容居中
+     */
+    public static int[] getRemoveWhiteSpaceMargin(int width, int height, int[] margins) {
+        if (margins == null) {
+            return null;
         }
+        int top = margins[0];
+        int right = margins[1];
+        int bottom = margins[2];
+        int left = margins[3];
 
         if (top + bottom >= height || left + right >= width) {
             return null;
@@ -185,26 +121,4 @@ public class BitmapRemoveWhiteSpaceUtil {
         res[3] = left;
         return res;
     }
-
-    /**
-     * 灰度化 bitmap
-     */
-    private static Bitmap getGrayImg(int imgTheWidth, int imgTheHeight, int[] imgThePixels) {
-        int alpha = 0xFF << 24;
-        for (int i = 0; i < imgTheHeight; i++) {
-            for (int j = 0; j < imgTheWidth; j++) {
-                int grey = imgThePixels[imgTheWidth * i + j];
-                int red = ((grey & 0x00FF0000) >> 16);
-                int green = ((grey & 0x0000FF00) >> 8);
-                int blue = (grey & 0x000000FF);
-                grey = (int) ((float) red * 0.3 + (float) green * 0.59 + (float) blue * 0.11);
-                grey = alpha | (grey << 16) | (grey << 8) | grey;
-                imgThePixels[imgTheWidth * i + j] = grey;
-            }
-        }
-        Bitmap result =
-                Bitmap.createBitmap(imgTheWidth, imgTheHeight, Bitmap.Config.RGB_565);
-        result.setPixels(imgThePixels, 0, imgTheWidth, 0, 0, imgTheWidth, imgTheHeight);
-        return result;
-    }
-}
\ No newline at end of file
+}
@@ -16,19 +16,59 @@ public class Constants {
      */
     public static float PART_SIZE = 256;
 
+    /**
+     * The range of part sizes chosen per zoom from the measured render cost (default 128 to 1024),
+     * sizes are MIN_PART_SIZE multiplied by powers of 2. Set both to PART_SIZE to disable it.
+     */
+    public static float MIN_PART_SIZE = 128;
+
+    public static float MAX_PART_SIZE = 1024;
+
     /**
      * Part of document above and below screen that should be preloaded, in dp
      */
     public static int PRELOAD_OFFSET = 20;
 
+    /**
+     * The maximum number of parts requested ahead of a fling, around the position where it ends
+     */
+    public static int PREFETCH_PART_COUNT = 32;
+
     public static class Cache {
 
         /**
-         * The size of the cache (number of bitmaps kept)
+         * Parts rendered for a zoom at most this many levels away from the current zoom are kept
+         * and drawn scaled until sharper parts replace them, a level being a factor of 2 (default 2)
+         */
+        public static int MIP_LEVEL_RANGE = 2;
+
+        /**
+         * The maximum number of parts requested for one position of the view
          */
         public static int CACHE_SIZE = 120;
 
+        /**
+         * The rendered parts may use up to 1/CACHE_MEMORY_RATIO of the app heap limit (default 4)
+         */
+        public static int CACHE_MEMORY_RATIO = 4;
+
         public static int THUMBNAILS_CACHE_SIZE = 4;
+
+        /**
+         * The size of the disk cache of rendered parts shared by all the views, in bytes (default 64MB)
+         */
+        public static long DISK_CACHE_SIZE = 64 * 1024 * 1024;
+
+        /**
+         * The number of documents whose text index is kept on disk (default 8)
+         */
+        public static int TEXT_INDEX_FILE_COUNT = 8;
+
+        /**
+         * The text index keeps page text in up to 1/TEXT_INDEX_MEMORY_RATIO of the byte budget of the
+         * rendered parts, the other pages are read again from the document when searched (default 8)
+         */
+        public static int TEXT_INDEX_MEMORY_RATIO = 8;
     }
 
     public static class Pinch {
@@ -0,0 +1,124 @@
+package com.snakeway.pdfviewer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PageLayoutTest {
+
+    @Test
+    public void pageAtStripPositionMatchesLinearScan() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            PageLayout layout = randomLayout(random);
+            float end = layout.getStripPageEnd(layout.getPageCount() - 1);
+            for (int i = 0; i < 100; i++) {
+                float position = (random.nextFloat() * 1.2f - 0.1f) * end;
+                assertEquals(linearPageAtStripPosition(layout, position), layout.getPageAtStripPosition(position));
+            }
+            for (int page = 0; page < layout.getPageCount(); page++) {
+                float pageEnd = layout.getStripPageEnd(page);
+                assertEquals(linearPageAtStripPosition(layout, pageEnd), layout.getPageAtStripPosition(pageEnd));
+                float pageStart = layout.getStripPageStart(page);
+                assertEquals(linearPageAtStripPosition(layout, pageStart), layout.getPageAtStripPosition(pageStart));
+            }
+        }
+    }
+
+    @Test
+    public void pageAtOffsetMatchesLinearScan() {
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            PageLayout layout = randomLayout(random);
+            float zoom = 0.5f + random.nextFloat() * 4;
+            float length = layout.getDocumentLength() * zoom;
+            for (int i = 0; i < 100; i++) {
+                float offset = (random.nextFloat() * 1.2f - 0.1f) * length;
+                assertEquals(linearPageAtOffset(layout, offset, zoom), layout.getPageAtOffset(offset, zoom));
+            }
+            for (int page = 0; page < layout.getPageCount(); page++) {
+                float offset = layout.getPageOffset(page) * zoom;
+                assertEquals(linearPageAtOffset(layout, offset, zoom), layout.getPageAtOffset(offset, zoom));
+            }
+        }
+    }
+
+    @Test
+    public void offsetsFollowPageLengths() {
+        PageLayout layout = new PageLayout(10, false);
+        layout.layout(new float[]{100, 200, 50}, 500);
+        assertEquals(0, layout.getPageOffset(0), 0);
+        assertEquals(110, layout.getPageOffset(1), 0);
+        assertEquals(320, layout.getPageOffset(2), 0);
+        assertEquals(370, layout.getDocumentLength(), 0);
+        assertEquals(1, layout.getPageAtStripPosition(114));
+        assertEquals(2, layout.getPageAtStripPosition(316));
+        assertEquals(-1, layout.getPageAtStripPosition(400));
+    }
+
+    @Test
+    public void updateMatchesFullLayout() {
+        Random random = new Random(13);
+        for (int round = 0; round < 200; round++) {
+            int spacing = random.nextInt(20);
+            boolean autoSpacing = random.nextBoolean();
+            float viewLength = 400 + random.nextInt(800);
+            float[] lengths = new float[1 + random.nextInt(300)];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = 50 + random.nextInt(1000);
+            }
+            PageLayout updated = new PageLayout(spacing, autoSpacing);
+            updated.layout(lengths.clone(), viewLength);
+            for (int batch = 0; batch < 5; batch++) {
+                int fromPage = random.nextInt(lengths.length);
+                float[] batchLengths = new float[random.nextInt(lengths.length - fromPage + 1)];
+                for (int i = 0; i < batchLengths.length; i++) {
+                    batchLengths[i] = 50 + random.nextInt(1000);
+                }
+                System.arraycopy(batchLengths, 0, lengths, fromPage, batchLengths.length);
+                updated.update(fromPage, batchLengths);
+            }
+            PageLayout full = new PageLayout(spacing, autoSpacing);
+            full.layout(lengths.clone(), viewLength);
+
+            assertEquals(full.getDocumentLength(), updated.getDocumentLength(), 0.01f);
+            for (int page = 0; page < lengths.length; page++) {
+                assertEquals(full.getPageOffset(page), updated.getPageOffset(page), 0.01f);
+                assertEquals(full.getPageSpacing(page), updated.getPageSpacing(page), 0);
+                assertEquals(full.getStripPageStart(page), updated.getStripPageStart(page), 0.01f);
+                assertEquals(full.getStripPageEnd(page), updated.getStripPageEnd(page), 0.01f);
+            }
+        }
+    }
+
+    private static PageLayout randomLayout(Random random) {
+        PageLayout layout = new PageLayout(random.nextInt(20), random.nextBoolean());
+        float[] lengths = new float[1 + random.nextInt(300)];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = 50 + random.nextInt(1000) + random.nextFloat();
+        }
+        layout.layout(lengths, 400 + random.nextInt(800));
+        return layout;
+    }
+
+    private static int linearPageAtStripPosition(PageLayout layout, float position) {
+        for (int page = 0; page < layout.getPageCount(); page++) {
+            if (position < layout.getStripPageEnd(page)) {
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    private static int linearPageAtOffset(PageLayout layout, float offset, float zoom) {
+        int result = 0;
+        for (int page = 0; page < layout.getPageCount(); page++) {
+            if (layout.getPageOffset(page) * zoom - layout.getPageSpacing(page) * zoom / 2f < offset) {
+                result = page;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+package com.snakeway.pdfviewer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TextMatcherTest {
+
+    @Test
+    public void findsMatchAcrossLines() {
+        char[] text = "first hyphen\r\nated line".toCharArray();
+        assertArrayEquals(new int[]{6, 17}, new TextMatcher("hyphenated", 0).find(text));
+        assertArrayEquals(new int[]{6, 17}, new TextMatcher("hyphen\nated", 0).find(text));
+        assertArrayEquals(new int[]{6, 17}, new TextMatcher("hyphen\\nated", TextMatcher.REGEX).find(text));
+    }
+
+    @Test
+    public void skipsCharsWithoutUnicode() {
+        char[] text = {'a', 'b', 0, 'c', 'd'};
+        assertArrayEquals(new int[]{1, 3}, new TextMatcher("bc", 0).find(text));
+    }
+
+    @Test
+    public void foldsCaseAndDiacritics() {
+        char[] text = "Le Café ÉTÉ".toCharArray();
+        assertNull(new TextMatcher("cafe", 0).find(text));
+        assertNull(new TextMatcher("cafe", TextMatcher.IGNORE_CASE).find(text));
+        assertArrayEquals(new int[]{3, 6}, new TextMatcher("Cafe", TextMatcher.IGNORE_DIACRITICS).find("Le Cafe".toCharArray()));
+        assertArrayEquals(new int[]{3, 6}, new TextMatcher("Cafe", TextMatcher.IGNORE_DIACRITICS).find(text));
+        int folded = TextMatcher.IGNORE_CASE | TextMatcher.IGNORE_DIACRITICS;
+        assertArrayEquals(new int[]{3, 6}, new TextMatcher("CAFE", folded).find(text));
+        assertArrayEquals(new int[]{8, 10}, new TextMatcher("ete", folded).find(text));
+    }
+
+    @Test
+    public void foldsCombiningDiacritics() {
+        char[] text = "café noir".toCharArray();
+        assertArrayEquals(new int[]{0, 3}, new TextMatcher("café", TextMatcher.IGNORE_DIACRITICS).find(text));
+        assertArrayEquals(new int[]{0, 9}, new TextMatcher("cafe noir", TextMatcher.IGNORE_DIACRITICS).find(text));
+    }
+
+    @Test
+    public void wholeWordSkipsPartialMatchesBeforeLaterOne() {
+        char[] text = "cart scar car, card".toCharArray();
+        assertArrayEquals(new int[]{10, 12}, new TextMatcher("car", TextMatcher.WHOLE_WORD).find(text));
+        List<int[]> matches = new TextMatcher("car", TextMatcher.WHOLE_WORD).findAll(text);
+        assertEquals(1, matches.size());
+        assertNull(new TextMatcher("car", TextMatcher.WHOLE_WORD).find("cart scar".toCharArray()));
+    }
+
+    @Test
+    public void findAllDoesNotOverlap() {
+        List<int[]> matches = new TextMatcher("aa", 0).findAll("aaaaa".toCharArray());
+        assertEquals(2, matches.size());
+        assertArrayEquals(new int[]{0, 1}, matches.get(0));
+        assertArrayEquals(new int[]{2, 3}, matches.get(1));
+
+        matches = new TextMatcher("aba", 0).findAll("abababa".toCharArray());
+        assertEquals(2, matches.size());
+        assertArrayEquals(new int[]{0, 2}, matches.get(0));
+        assertArrayEquals(new int[]{4, 6}, matches.get(1));
+    }
+
+    @Test
+    public void regexMatchesMapToOriginalChars() {
+        char[] text = {'x', 0, 'a', 'b', '\r', '\n', 'c', 'd', 0, '1', '2'};
+        assertArrayEquals(new int[]{2, 7}, new TextMatcher("ab\\ncd", TextMatcher.REGEX).find(text));
+        List<int[]> matches = new TextMatcher("[a-z]+", TextMatcher.REGEX).findAll(text);
+        assertEquals(2, matches.size());
+        assertArrayEquals(new int[]{0, 3}, matches.get(0));
+        assertArrayEquals(new int[]{6, 7}, matches.get(1));
+        assertArrayEquals(new int[]{9, 10}, new TextMatcher("\\d+", TextMatcher.REGEX).find(text));
+        assertArrayEquals(new int[]{2, 3}, new TextMatcher("AB", TextMatcher.REGEX | TextMatcher.IGNORE_CASE).find(text));
+    }
+
+    @Test
+    public void regexWholeWord() {
+        char[] text = "cart car".toCharArray();
+        assertArrayEquals(new int[]{5, 7}, new TextMatcher("ca.", TextMatcher.REGEX | TextMatcher.WHOLE_WORD).find(text));
+    }
+
+    @Test
+    public void emptyQueries() {
+        assertTrue(new TextMatcher("", 0).isEmpty());
+        assertTrue(new TextMatcher("\n", 0).isEmpty());
+        assertNull(new TextMatcher("", 0).find("abc".toCharArray()));
+        assertEquals(0, new TextMatcher("", 0).findAll("abc".toCharArray()).size());
+    }
+
+    @Test
+    public void matchesIndexOfOnRandomText() {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; round++) {
+            String text = randomText(random, random.nextInt(60));
+            String query = randomText(random, 1 + random.nextInt(4));
+            TextMatcher matcher = new TextMatcher(query, 0);
+
+            int index = text.indexOf(query);
+            int[] match = matcher.find(text.toCharArray());
+            if (index < 0) {
+                assertNull(text + " / " + query, match);
+            } else {
+                assertArrayEquals(text + " / " + query, new int[]{index, index + query.length() - 1}, match);
+            }
+
+            List<int[]> expected = new ArrayList<>();
+            for (int i = text.indexOf(query); i >= 0; i = text.indexOf(query, i + query.length())) {
+                expected.add(new int[]{i, i + query.length() - 1});
+            }
+            List<int[]> matches = matcher.findAll(text.toCharArray());
+            assertEquals(text + " / " + query, expected.size(), matches.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(text + " / " + query, expected.get(i), matches.get(i));
+            }
+        }
+    }
+
+    /**
+     * Text over a small alphabet, so queries with repeated prefixes match often
+     */
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(3));
+        }
+        return new String(chars);
+    }
+}